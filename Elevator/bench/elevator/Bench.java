@@ -0,0 +1,119 @@
+package elevator;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness, in the style of JMH.
+ *
+ * A benchmark is an operation repeated in batches: after some warmup
+ * iterations, each measured iteration runs the operation for a fixed time
+ * and reports the average time per operation.  The results of the operations
+ * are accumulated in a sink, so that the JIT cannot remove them.
+ *
+ * @author Claudio Cusano
+ */
+abstract class Bench {
+
+    static int WARMUP_ITERATIONS = 3;
+    static int ITERATIONS = 5;
+    static long ITERATION_TIME = 1000;  // Milliseconds
+
+    static long sink;
+    static int failures;  // Regression checks failed so far.
+
+    final String name;
+
+    Bench(String name) {
+        this.name = name;
+    }
+
+    /** The operation to measure (i is the number of the operation). */
+    abstract long op(int i);
+
+    /** Run the benchmark and print the result. */
+    void run(PrintStream out) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            iteration();
+        double[] ns = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++)
+            ns[i] = iteration();
+        report(out, name, ns, "ns/op");
+    }
+
+    /** Run the operation for the iteration time, return ns per operation. */
+    double iteration() {
+        long deadline = System.nanoTime() + ITERATION_TIME * 1000000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long now;
+        int batch = 1;
+        long s = 0;
+        do {
+            for (int i = 0; i < batch; i++)
+                s += op((int) (ops + i) & Integer.MAX_VALUE);
+            ops += batch;
+            if (batch < (1 << 20))
+                batch <<= 1;
+            now = System.nanoTime();
+        } while (now < deadline);
+        sink += s;
+        return (now - start) / (double) ops;
+    }
+
+    /** Print mean and standard deviation of the measures. */
+    static void report(PrintStream out, String name, double[] values, String unit) {
+        double mean = mean(values);
+        double var = 0;
+        for (double v : values)
+            var += (v - mean) * (v - mean);
+        double sd = (values.length > 1 ? Math.sqrt(var / (values.length - 1)) : 0);
+        out.println(String.format(Locale.ROOT, "%-40s %14.3f +- %10.3f %s", name, mean, sd, unit));
+    }
+
+    /** Mean of the values. */
+    static double mean(double[] values) {
+        double mean = 0;
+        for (double v : values)
+            mean += v;
+        return mean / values.length;
+    }
+
+    /**
+     * Record the outcome of a regression check: a failed check is printed,
+     * and makes the benchmarks exit with an error at the end.
+     */
+    static void check(PrintStream out, boolean ok, String what) {
+        if (!ok) {
+            failures++;
+            out.println("FAILED: " + what);
+        }
+    }
+
+    /** CPU time used by the whole process, in nanoseconds (-1 if unknown). */
+    static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    /**
+     * Bytes allocated so far by the live threads of the process (-1 if
+     * unknown).
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+        long sum = 0;
+        for (long b : t.getThreadAllocatedBytes(t.getAllThreadIds()))
+            if (b > 0)
+                sum += b;
+        return sum;
+    }
+}
@@ -0,0 +1,688 @@
+package elevator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import txt.TelemetryServer;
+
+/**
+ * Benchmarks of the elevator core.
+ *
+ * Run them with "ant bench".  The names of the benchmarks to run can be given
+ * as arguments (all of them by default).
+ *
+ * @author Claudio Cusano
+ */
+public class CoreBenchmarks {
+
+    static final int FLOORS = 200;
+    static final int PERSONS = 1000;
+    static final int OBSERVERS = 16;
+    static final double MAX_SPURIOUS_WAKEUPS = 10;  // Per door cycle.
+    static final double MAX_WAKEUP_RATIO = 0.1;  // Of one condition per car.
+    static final int POLL = 100;  // Milliseconds between the checks of an idle car that polls.
+    static final double MAX_DEPARTURE_RATIO = 0.1;  // Of the cars that poll.
+    static final double MAX_ALLOCATION = 180;  // Bytes per trip.
+    static final double MIN_CAMPUS_EFFICIENCY = 0.7;  // Of linear scaling.
+
+    /** Names of the floors of a building of the given height. */
+    static String[] floorNames(int n) {
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++)
+            names[i] = "F" + i;
+        return names;
+    }
+
+    /** Elevator.countRequests on a tall building with some requests. */
+    static Bench countRequests() {
+        final Building b = new Building(floorNames(FLOORS), 1, 8, new VirtualClock());
+        final Elevator e = b.elevators.get(0);
+        Random random = new Random(1);
+        for (int i = 0; i < FLOORS / 10; i++)
+            b.floors.get(random.nextInt(FLOORS)).requestStop(0);
+        return new Bench("Elevator.countRequests") {
+            @Override
+            long op(int i) {
+                e.position = b.floors.get(i % FLOORS);
+                return e.countRequests(Direction.UP) + e.countRequests(Direction.DOWN);
+            }
+        };
+    }
+
+    /** Floor.isAbove between floors of a tall building. */
+    static Bench isAbove() {
+        final Building b = new Building(floorNames(FLOORS), new VirtualClock());
+        return new Bench("Floor.isAbove") {
+            @Override
+            long op(int i) {
+                Floor f = b.floors.get(i % FLOORS);
+                Floor g = b.floors.get(((i * 7919) & Integer.MAX_VALUE) % FLOORS);
+                return (f.isAbove(g) ? 1 : 0);
+            }
+        };
+    }
+
+    /** Building.getPersonAtFloorNames with a large population. */
+    static Bench personsAtFloor() {
+        final Building b = new Building(floorNames(20), new VirtualClock());
+        for (int i = 0; i < PERSONS; i++)
+            b.addNewPerson();
+        Random random = new Random(1);
+        for (Person p : b.persons)
+            p.setLocation(b.floors.get(random.nextInt(20)));
+        final String[] names = floorNames(20);
+        return new Bench("Building.getPersonAtFloorNames") {
+            @Override
+            long op(int i) {
+                return b.getPersonAtFloorNames(names[i % names.length]).size();
+            }
+        };
+    }
+
+    /** Building.getPersonDestination with a large population. */
+    static Bench personDestination() {
+        final Building b = new Building(floorNames(20), new VirtualClock());
+        for (int i = 0; i < PERSONS; i++)
+            b.addNewPerson();
+        return new Bench("Building.getPersonDestination") {
+            @Override
+            long op(int i) {
+                return b.getPersonDestination("U" + (i % PERSONS + 1)).length();
+            }
+        };
+    }
+
+    /** Subject.notifyObservers with a set of observers that do nothing. */
+    static Bench notifyObservers(final boolean snapshots) {
+        final Building b = new Building(floorNames(20), new VirtualClock());
+        for (int i = 0; i < 100; i++)
+            b.addNewPerson();
+        final long[] count = new long[1];
+        for (int i = 0; i < OBSERVERS; i++) {
+            if (snapshots)
+                b.addElevatorObserver(new SnapshotObserver() {
+                    @Override
+                    public void elevatorChanged(ElevatorSnapshot snapshot) {
+                        count[0] += snapshot.getFloorNames().size();
+                    }
+                });
+            else
+                b.addElevatorObserver(new ElevatorObserver() {
+                    @Override
+                    public void elevatorMoved() {
+                        count[0]++;
+                    }
+                });
+        }
+        final Elevator e = b.elevators.get(0);
+        return new Bench("Subject.notifyObservers" + (snapshots ? "(snapshot)" : "")) {
+            @Override
+            long op(int i) {
+                e.notifyObservers();
+                return count[0];
+            }
+        };
+    }
+
+    /**
+     * One simulated hour of a building on the virtual clock: passengers
+     * delivered per CPU second of the whole process.
+     */
+    static void simulatedHour(PrintStream out) {
+        final int hour = 3600 * 1000;
+        double[] rates = new double[Bench.ITERATIONS];
+        for (int it = -Bench.WARMUP_ITERATIONS; it < rates.length; it++) {
+            Building b = new Building(floorNames(10), 3, 8, new VirtualClock());
+            long cpu = Bench.processCpuTime();
+            b.startSimulation();
+            for (int i = 0; i < 200; i++)
+                b.addNewPerson();
+            try {
+                b.getClock().sleep(hour);
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+            long trips = b.getCompletedTrips();
+            cpu = Bench.processCpuTime() - cpu;
+            b.stopSimulation();
+            if (it >= 0)
+                rates[it] = trips / (cpu / 1e9);
+        }
+        Bench.report(out, "Simulated hour (10 floors, 3 cars, 200 persons)", rates, "trips/cpu-s");
+    }
+
+    /**
+     * Virtual clock counting the persons woken by the signals of the cars,
+     * and those a single condition per car would have woken: all the
+     * persons waiting for the car, wherever they are.
+     */
+    static class WakeupClock extends VirtualClock {
+        long woken;
+        long broadcast;
+
+        @Override
+        void signalAll(Condition cond) {
+            synchronized (this) {
+                Runnable body = running.body;
+                Elevator car = (body instanceof Elevator ? (Elevator) body
+                        : body instanceof Person ? ((Person) body).elevator : null);
+                List<Token> ws = waiting.get(cond);
+                if (car != null && ws != null) {
+                    woken += ws.size();
+                    for (List<Token> others : waiting.values())
+                        for (Token t : others)
+                            if (t.body instanceof Person && ((Person) t.body).elevator == car)
+                                broadcast++;
+                }
+            }
+            super.signalAll(cond);
+        }
+    }
+
+    /**
+     * Persons woken per door cycle, in ten seeded minutes of 10 floors, 2
+     * cars of capacity 8 and 200 persons, against those a single condition
+     * per car would wake in the same run.  The queues by floor wake about
+     * 1/20 of them; the check fails above MAX_WAKEUP_RATIO, or when the
+     * spurious wakeups (persons woken and left waiting) are above
+     * MAX_SPURIOUS_WAKEUPS per cycle.
+     */
+    static void spuriousWakeups(PrintStream out) {
+        final int minute = 60 * 1000;
+        WakeupClock clock = new WakeupClock();
+        Building b = new Building(floorNames(10), 2, 8, clock);
+        b.setSeed(1);
+        b.startSimulation();
+        for (int i = 0; i < 200; i++)
+            b.addNewPerson();
+        long woken;
+        long broadcast;
+        try {
+            clock.sleep(10 * minute);
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+        // Counted before stopping, which wakes everybody.
+        synchronized (clock) {
+            woken = clock.woken;
+            broadcast = clock.broadcast;
+        }
+        Metrics m = b.getMetrics();
+        long wakeups = 0;
+        long cycles = 0;
+        for (int i = 0; i < b.getElevatorCount(); i++) {
+            wakeups += m.getCar(i).getSpuriousWakeups();
+            cycles += m.getCar(i).getDoorCycles();
+        }
+        cycles = Math.max(1, cycles);
+        b.stopSimulation();
+        double rate = wakeups / (double) cycles;
+        double ratio = woken / (double) Math.max(1, broadcast);
+        out.println(String.format(Locale.ROOT, "%-40s %14.3f wakeups/cycle %10.3f spurious/cycle",
+                "Wakeups (10 floors, 2 cars)", woken / (double) cycles, rate));
+        out.println(String.format(Locale.ROOT, "%-40s %14.3f wakeups/cycle %10.3f of them",
+                "Wakeups with one condition per car", broadcast / (double) cycles, ratio));
+        Bench.check(out, ratio <= MAX_WAKEUP_RATIO, "persons woken above " + MAX_WAKEUP_RATIO + " of one condition per car");
+        Bench.check(out, rate <= MAX_SPURIOUS_WAKEUPS, "spurious wakeups per door cycle above " + MAX_SPURIOUS_WAKEUPS);
+    }
+
+    /**
+     * Virtual clock timing the idle cars, from the request which wakes them
+     * to their departure.  When polling, the idle cars check their requests
+     * every POLL ms instead of waiting for them, as they did before parking.
+     */
+    static class DepartureClock extends VirtualClock {
+        final boolean polling;
+        final Map<Condition, Elevator> cars = new IdentityHashMap<>();  // Filled before starting.
+        final Map<Elevator, Long> requested = new IdentityHashMap<>();  // Guarded by the clock.
+        final Histogram latency = new Histogram();  // Guarded by the clock.
+
+        DepartureClock(boolean polling) {
+            this.polling = polling;
+        }
+
+        void watch(Building b) {
+            for (Elevator e : b.elevators)
+                cars.put(e.requested, e);
+        }
+
+        @Override
+        void signalAll(Condition cond) {
+            Elevator e = cars.get(cond);
+            if (e != null) {
+                synchronized (this) {
+                    if (!requested.containsKey(e))
+                        requested.put(e, now);
+                }
+            }
+            super.signalAll(cond);
+        }
+
+        @Override
+        void await(Condition cond, ReentrantLock lock) throws InterruptedException {
+            Elevator e = cars.get(cond);
+            if (e == null || !polling) {
+                super.await(cond, lock);
+            } else {
+                int holds = lock.getHoldCount();
+                for (int i = 0; i < holds; i++)
+                    lock.unlock();
+                try {
+                    sleep(POLL);
+                } finally {
+                    for (int i = 0; i < holds; i++)
+                        lock.lock();
+                }
+            }
+            if (e != null && e.countRequests(Direction.UP) + e.countRequests(Direction.DOWN) > 0) {
+                synchronized (this) {
+                    Long t = requested.remove(e);
+                    if (t != null)
+                        latency.record(now - t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Time from the request to the departure of an idle car, in a seeded
+     * hour of 10 floors, 2 cars and 2 persons (the cars are often idle),
+     * with the cars waiting for the requests and with the cars polling
+     * them every POLL ms.  Waiting, the cars leave at the instant of the
+     * request; the check fails when the mean is above MAX_DEPARTURE_RATIO
+     * of the one of polling.
+     */
+    static void departureLatency(PrintStream out) {
+        final int hour = 3600 * 1000;
+        Histogram[] latency = new Histogram[2];
+        for (int k = 0; k < 2; k++) {
+            DepartureClock clock = new DepartureClock(k == 1);
+            Building b = new Building(floorNames(10), 2, 8, clock);
+            b.setSeed(1);
+            clock.watch(b);
+            b.startSimulation();
+            for (int i = 0; i < 2; i++)
+                b.addNewPerson();
+            try {
+                clock.sleep(hour);
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+            synchronized (clock) {
+                latency[k] = clock.latency.copy();
+            }
+            b.stopSimulation();
+            out.println(String.format(Locale.ROOT, "%-40s %14.1f ms mean %10d ms p99 %8d departures",
+                    "Call to departure (" + (k == 0 ? "waiting" : "polling") + ")",
+                    latency[k].getMean(), latency[k].getPercentile(0.99), latency[k].getCount()));
+        }
+        Bench.check(out, latency[0].getCount() > 0 && latency[1].getCount() > 0
+                && latency[0].getMean() <= MAX_DEPARTURE_RATIO * latency[1].getMean(),
+                "call to departure above " + MAX_DEPARTURE_RATIO + " of polling");
+    }
+
+    /**
+     * A simulated hour of a large building whose persons are kept in the
+     * primitive population: heap used per person and simulation speed.
+     */
+    static void largePopulation(PrintStream out) {
+        final int hour = 3600 * 1000;
+        final int size = 1000000;
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        Building b = new Building(floorNames(50), 16, 20, new VirtualClock());
+        b.setSeed(1);
+        b.setPopulation(size);
+        System.gc();
+        long bytes = rt.totalMemory() - rt.freeMemory() - before;
+        long cpu = Bench.processCpuTime();
+        b.startSimulation();
+        try {
+            b.getClock().sleep(hour);
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+        b.stopSimulation();
+        cpu = Bench.processCpuTime() - cpu;
+        out.println(String.format(Locale.ROOT, "%-40s %14.1f bytes/person %10.1f trips/cpu-s",
+                "Population (1M persons, 50 floors, 16 cars)", bytes / (double) size,
+                b.getCompletedTrips() / (cpu / 1e9)));
+    }
+
+    /**
+     * Bytes allocated per completed trip once the simulation is in steady
+     * state (10 floors, 3 cars, 200 persons, no observers).  The cars, the
+     * persons and the virtual clock should not allocate on their way: what
+     * is left is the cost of the threads handing over to each other (about
+     * 127 bytes per trip; copying the passengers at each boarding cost 234),
+     * and the check fails above MAX_ALLOCATION.
+     */
+    static void allocationRate(PrintStream out) {
+        final int minute = 60 * 1000;
+        double[] rates = new double[Bench.ITERATIONS];
+        Building b = new Building(floorNames(10), 3, 8, new VirtualClock());
+        b.setSeed(1);
+        b.startSimulation();
+        for (int i = 0; i < 200; i++)
+            b.addNewPerson();
+        try {
+            for (int it = -Bench.WARMUP_ITERATIONS; it < rates.length; it++) {
+                long bytes = Bench.allocatedBytes();
+                long trips = b.getCompletedTrips();
+                b.getClock().sleep(10 * minute);
+                bytes = Bench.allocatedBytes() - bytes;
+                trips = b.getCompletedTrips() - trips;
+                if (it >= 0)
+                    rates[it] = bytes / (double) Math.max(trips, 1);
+            }
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+        b.stopSimulation();
+        Bench.report(out, "Allocation (10 floors, 3 cars, 200 persons)", rates, "bytes/trip");
+        Bench.check(out, Bench.mean(rates) <= MAX_ALLOCATION, "allocation per trip above " + MAX_ALLOCATION + " bytes");
+    }
+
+    /**
+     * A simulated hour of a campus of identical towers, with a shard for
+     * each of them: trips delivered per second of real time and per tower,
+     * as the number of towers grows.  The throughput should scale with the
+     * processors: the check fails when, against a single tower, it is below
+     * MIN_CAMPUS_EFFICIENCY of linear scaling (up to the processors).
+     */
+    static void campus(PrintStream out) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int max = Math.max(2, cpus);
+        double single = 0;
+        for (int n = 1; n <= max; n *= 2) {
+            double[] rates = new double[Bench.ITERATIONS];
+            long transfers = 0;
+            for (int it = -Bench.WARMUP_ITERATIONS; it < rates.length; it++) {
+                Campus campus = campus(n);
+                long start = System.nanoTime();
+                try {
+                    campus.simulate(3600 * 1000);
+                } catch (InterruptedException ex) {
+                    System.err.println(ex);
+                }
+                double secs = (System.nanoTime() - start) / 1e9;
+                if (it >= 0)
+                    rates[it] = campus.getCompletedTrips() / secs / n;
+                transfers = 0;
+                for (int i = 0; i < n; i++)
+                    transfers += campus.getTransfersIn(i);
+            }
+            Bench.report(out, "Campus (" + n + " towers, " + transfers + " transfers)", rates, "trips/s per tower");
+            double rate = Bench.mean(rates);
+            if (n == 1)
+                single = rate;
+            else
+                Bench.check(out, rate * n >= MIN_CAMPUS_EFFICIENCY * single * Math.min(n, cpus),
+                        "campus of " + n + " towers below " + MIN_CAMPUS_EFFICIENCY + " of linear scaling");
+        }
+    }
+
+    /** Campus of n towers (15 floors, 3 cars, lunch traffic). */
+    static Campus campus(int n) {
+        Campus campus = new Campus(60 * 1000);
+        campus.setSeed(1);
+        campus.setTransferProbability(0.3);
+        for (int i = 0; i < n; i++) {
+            Building b = new Building(floorNames(15), 3, 8, new VirtualClock());
+            b.setSeed(i + 1);
+            b.setTraffic(TrafficPattern.lunch(15, 40));
+            campus.addBuilding(b);
+        }
+        return campus;
+    }
+
+    /**
+     * Checkpoint of a building warmed up for an hour (15 floors, 6 cars, 20
+     * persons, 50 more in the population and lunch traffic): its size and
+     * the time to take it, and the wait times of what-if runs continuing
+     * from it for ten minutes with each dispatcher.  The check fails if a
+     * thread other than the one driving the simulation can take the
+     * checkpoint, or if a what-if, run twice, gives two results.
+     */
+    static void checkpoint(PrintStream out) {
+        final int hour = 3600 * 1000;
+        final Building warm = new Building(floorNames(15), 6, 8, new VirtualClock());
+        warm.setSeed(1);
+        warm.setPopulation(50);
+        warm.setTraffic(TrafficPattern.lunch(15, 40));
+        // The activities of the simulation cannot take checkpoints.
+        final int[] refused = new int[1];
+        warm.addElevatorObserver(new SnapshotObserver() {
+            @Override
+            public void elevatorChanged(ElevatorSnapshot snapshot) {
+                if (refused[0] == 0)
+                    refused[0] = refuses(warm);
+            }
+        });
+        warm.startSimulation();
+        for (int i = 0; i < 20; i++)
+            warm.addNewPerson();
+        Checkpoint c;
+        long nanos;
+        try {
+            warm.getClock().sleep(hour);
+            nanos = System.nanoTime();
+            c = Checkpoint.take(warm);
+            nanos = System.nanoTime() - nanos;
+            // Neither can the threads outside of it.
+            Thread other = new Thread() {
+                @Override
+                public void run() {
+                    refused[0] += refuses(warm);
+                }
+            };
+            other.start();
+            other.join();
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+            return;
+        } finally {
+            warm.stopSimulation();
+        }
+        out.println(String.format(Locale.ROOT, "%-40s %14d bytes %10.1f ms",
+                "Checkpoint (after 1 hour)", c.size(), nanos / 1e6));
+        Bench.check(out, refused[0] == 2, "checkpoint not refused to the threads not driving the simulation");
+        Dispatcher[] dispatchers = {
+            new EtaDispatcher(), new NearestCarDispatcher(), new DestinationDispatcher()
+        };
+        for (Dispatcher dispatcher : dispatchers) {
+            long[] trips = new long[2];
+            double[] wait = new double[2];
+            for (int k = 0; k < 2; k++) {
+                Building b = new Building(floorNames(15), 6, 8, new VirtualClock());
+                b.setSeed(2);
+                b.setDispatcher(dispatcher);
+                b.setTraffic(TrafficPattern.lunch(15, 40));
+                Histogram before;
+                try {
+                    b.restore(c);
+                    before = b.getMetrics().getWaitTime().copy();
+                    b.startSimulation();
+                    b.getClock().sleep(hour / 6);
+                } catch (IOException | InterruptedException ex) {
+                    System.err.println(ex);
+                    return;
+                }
+                b.stopSimulation();
+                Histogram h = b.getMetrics().getWaitTime().since(before);
+                trips[k] = h.getCount();
+                wait[k] = h.getMean();
+            }
+            String name = "What-if " + dispatcher.getClass().getSimpleName();
+            out.println(String.format(Locale.ROOT, "%-40s %14d trips %10.1f ms wait",
+                    name, trips[0], wait[0]));
+            Bench.check(out, trips[0] == trips[1] && wait[0] == wait[1], name + " not deterministic");
+        }
+    }
+
+    /** 1 if taking the checkpoint of the building is refused, 0 otherwise. */
+    static int refuses(Building b) {
+        try {
+            Checkpoint.take(b);
+            return 0;
+        } catch (IllegalStateException ex) {
+            return 1;
+        }
+    }
+
+    /**
+     * Wait times with each collective control, on the same seeded hours of
+     * lunch traffic (the wait times of all the replications are pooled).
+     * The check fails if a control does not cut both the mean and the 99th
+     * percentile of the wait of the original one (the first).
+     */
+    static void collectiveControl(PrintStream out) {
+        final int hour = 3600 * 1000;
+        CollectiveControl[] controls = {
+            new RequestCountControl(), new DestinationControl(), new MinimalCostControl()
+        };
+        Histogram original = null;
+        for (CollectiveControl control : controls) {
+            Histogram wait = new Histogram();
+            for (int seed = 1; seed <= Bench.ITERATIONS; seed++) {
+                Building b = new Building(floorNames(15), 3, 8, new VirtualClock());
+                b.setSeed(seed);
+                b.setControl(control);
+                b.setTraffic(TrafficPattern.lunch(15, 40));
+                b.startSimulation();
+                try {
+                    b.getClock().sleep(hour);
+                } catch (InterruptedException ex) {
+                    System.err.println(ex);
+                }
+                b.stopSimulation();
+                wait.add(b.getMetrics().getWaitTime());
+            }
+            String name = control.getClass().getSimpleName();
+            out.println(String.format(Locale.ROOT, "%-40s %14.1f ms mean wait %10d ms p99 wait",
+                    name, wait.getMean(), wait.getPercentile(0.99)));
+            if (original == null)
+                original = wait;
+            else
+                Bench.check(out, wait.getMean() < original.getMean()
+                        && wait.getPercentile(0.99) < original.getPercentile(0.99),
+                        name + " not better than " + controls[0].getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Event stream of the telemetry server, on the loopback interface: a
+     * client reads the first event, and a client which never reads is
+     * dropped, its connection closed (the check fails if it is still
+     * served 10 seconds after an hour of simulated traffic).
+     */
+    static void telemetry(PrintStream out) {
+        final int minute = 60 * 1000;
+        Building b = new Building(floorNames(10), 2, 8, new VirtualClock());
+        b.setSeed(1);
+        String event = null;
+        long dropped = 0;
+        long open = 0;
+        try (TelemetryServer server = new TelemetryServer(b, 0);
+                Socket stalled = new Socket()) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+            byte[] request = "GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+            stalled.setReceiveBufferSize(1024);
+            stalled.connect(address);
+            stalled.getOutputStream().write(request);
+            // The reader goes away after the first event.
+            try (Socket reader = new Socket()) {
+                reader.connect(address);
+                reader.setSoTimeout(10000);
+                reader.getOutputStream().write(request);
+                awaitOpenStreams(server, 2);
+                b.startSimulation();
+                for (int i = 0; i < 100; i++)
+                    b.addNewPerson();
+                b.getClock().sleep(minute);
+                event = firstEvent(new BufferedReader(new InputStreamReader(reader.getInputStream(), StandardCharsets.UTF_8)));
+            }
+            for (int i = 0; i < 60 && server.getOpenStreams() > 0; i++)
+                b.getClock().sleep(minute);
+            b.stopSimulation();
+            awaitOpenStreams(server, 0);
+            dropped = server.getDroppedClients();
+            open = server.getOpenStreams();
+        } catch (IOException | InterruptedException ex) {
+            System.err.println(ex);
+        }
+        out.println(String.format(Locale.ROOT, "%-40s %14d dropped %10d open",
+                "Telemetry (stalled client)", dropped, open));
+        Bench.check(out, event != null && event.startsWith("{"), "no event read from the telemetry stream");
+        Bench.check(out, dropped > 0 && open == 0, "stalled telemetry client still served");
+    }
+
+    /** Wait (up to 10 seconds) for the server to serve the given number of streams. */
+    static void awaitOpenStreams(TelemetryServer server, long n) throws InterruptedException {
+        for (int i = 0; i < 100 && server.getOpenStreams() != n; i++)
+            Thread.sleep(100);
+    }
+
+    /** The data of the first event read from a stream, or null. */
+    static String firstEvent(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null)
+            if (line.startsWith("data: "))
+                return line.substring(6);
+        return null;
+    }
+
+    public static void main(String[] args) {
+        Bench[] all = {
+            countRequests(), isAbove(), personsAtFloor(), personDestination(),
+            notifyObservers(false), notifyObservers(true)
+        };
+        PrintStream out = System.out;
+        for (Bench bench : all)
+            if (selected(bench.name, args))
+                bench.run(out);
+        if (selected("simulatedHour", args))
+            simulatedHour(out);
+        if (selected("collectiveControl", args))
+            collectiveControl(out);
+        if (selected("campus", args))
+            campus(out);
+        if (selected("allocationRate", args))
+            allocationRate(out);
+        if (selected("largePopulation", args))
+            largePopulation(out);
+        if (selected("checkpoint", args))
+            checkpoint(out);
+        if (selected("spuriousWakeups", args))
+            spuriousWakeups(out);
+        if (selected("departureLatency", args))
+            departureLatency(out);
+        if (selected("telemetry", args))
+            telemetry(out);
+        if (Bench.failures > 0)
+            System.exit(1);
+    }
+
+    /** Tell if the benchmark has been selected on the command line. */
+    static boolean selected(String name, String[] args) {
+        if (args.length == 0)
+            return true;
+        for (String a : args)
+            if (name.contains(a))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,109 @@
+package elevator;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deliver the notifications of a group of subjects on a separate thread.
+ * 
+ * The subjects that changed are queued in a ring buffer, in the order of
+ * their first pending change.  A subject that changes again before being
+ * delivered is not queued twice: bursts of changes are coalesced into a
+ * single notification carrying the latest snapshot.  For this
+ * reason the buffer never holds more entries than the subjects, and
+ * publishing never blocks the thread that changed the subject.
+ * 
+ * @author Claudio Cusano
+ */
+class AsyncNotifier implements Runnable {
+
+    final Subject[] ring;
+    int head;   // Next entry to deliver.
+    int size;
+    boolean stopping;
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition notEmpty = lock.newCondition();
+    Thread thread;
+    
+    /** Create the notifier for the given number of subjects. */
+    AsyncNotifier(int subjects) {
+        ring = new Subject[subjects];
+    }
+
+    /** Start the delivery thread. */
+    void start() {
+        thread = new Thread(this, "Notifier-thread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /** Queue a notification for the subject. */
+    void publish(Subject s, ElevatorSnapshot snapshot) {
+        lock.lock();
+        try {
+            s.pendingSnapshot = snapshot;
+            if (s.pending)
+                return;
+            if (size == ring.length)
+                throw new IllegalStateException("More subjects than the notifier can hold");
+            s.pending = true;
+            ring[(head + size) % ring.length] = s;
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public void run() {
+        Subject[] batch = new Subject[ring.length];
+        ElevatorSnapshot[] snapshots = new ElevatorSnapshot[ring.length];
+        while (true) {
+            int n;
+            lock.lock();
+            try {
+                while (size == 0 && !stopping)
+                    notEmpty.awaitUninterruptibly();
+                if (size == 0)
+                    return;
+                // Take all the pending notifications at once.  The subjects
+                // are no longer pending, so changes made during the delivery
+                // are queued again.
+                n = size;
+                for (int i = 0; i < n; i++) {
+                    batch[i] = ring[head];
+                    ring[head] = null;
+                    batch[i].pending = false;
+                    snapshots[i] = batch[i].pendingSnapshot;
+                    batch[i].pendingSnapshot = null;
+                    head = (head + 1) % ring.length;
+                }
+                size = 0;
+            } finally {
+                lock.unlock();
+            }
+            for (int i = 0; i < n; i++) {
+                batch[i].deliver(snapshots[i]);
+                batch[i] = null;
+                snapshots[i] = null;
+            }
+        }
+    }
+    
+    /** Deliver the pending notifications and terminate the thread. */
+    void shutdown() {
+        lock.lock();
+        try {
+            stopping = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+    }
+}
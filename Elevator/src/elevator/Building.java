@@ -5,21 +5,52 @@
 
 package elevator;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
- * The whole building, including the elevator, the floors and the persons.
+ * The whole building, including the elevators, the floors and the persons.
+ * 
+ * The methods without an elevator index refer to the first car.
  * 
  * @author Claudio Cusano
  */
 public class Building {
 
-    Elevator elevator;
+    List<Elevator> elevators;
+    Dispatcher dispatcher = new EtaDispatcher();
     List<Floor> floors;
-    List<Person> persons;
-    Thread elevatorThread;
+    Map<String, Floor> floorsByName;
+    RequestRegister register;
+    List<Person> persons;  // By id (guarded by itself).
+    final Map<String, Person> personsByName = new ConcurrentHashMap<>();
+    Population population;  // Persons without objects (null if none).
+    Campus.Shard shard;  // Null if the building is not part of a campus.
+    SimClock clock;
+    Executor elevatorExecutor = new ThreadPerTaskExecutor("Elevator-thread-");
+    Executor personExecutor = new ThreadPerTaskExecutor("Person-thread-");
+    boolean started;
+    AsyncNotifier notifier;
+    final AtomicLong completedTrips = new AtomicLong();
+    Metrics metrics;
+    TrafficPattern traffic;
+    WorkloadGenerator workload;
+    Random seeds;
+    Recorder recorder;
+    Replay replay;
+    Replay.Arrivals arrivals;
+    long startTime;
+    List<Person> restoreOrder;  // Start order of the persons of a checkpoint.
     
     /**
      * Create the building.
@@ -27,30 +58,296 @@ public class Building {
      * floorNames is a list of names for the floors (from bottom to top).
      */
     public Building(String[] floorNames) {
+        this(floorNames, new WallClock());
+    }
+    
+    /**
+     * Create the building, where the time is measured by the given clock.
+     * 
+     * With a WallClock the simulation runs in real time, with a VirtualClock
+     * it runs as fast as possible on a virtual time line.
+     */
+    public Building(String[] floorNames, SimClock clock) {
+        this(floorNames, 1, 2, clock);
+    }
+    
+    /**
+     * Create a building served by a group of elevators.
+     * 
+     * All the cars have the same capacity and start from the bottom floor.
+     */
+    public Building(String[] floorNames, int nElevators, int capacity, SimClock clock) {
+        if (nElevators < 1)
+            throw new IllegalArgumentException("The building needs at least an elevator");
+        this.clock = clock;
         persons = new ArrayList<>();
         
         // Create the floors.
         floors = new ArrayList<>();
+        floorsByName = new HashMap<>();
         for (int i = 0; i < floorNames.length; i++) {
             floors.add(new Floor(floorNames[i]));
+            floorsByName.put(floorNames[i], floors.get(i));
             if (i > 0)
                 floors.get(i-1).linkUp(floors.get(i));
         }
+        register = new RequestRegister(floors.get(0), nElevators);
         
-        // Create and setup the elevator
-        elevator = new Elevator(floors.get(0), 2);
-        elevatorThread = new Thread(elevator, "Elevator-thread");
+        // Create and setup the elevators
+        elevators = new ArrayList<>();
+        for (int i = 0; i < nElevators; i++) {
+            Elevator e = new Elevator(i, floors.get(0), capacity, clock);
+            e.building = this;
+            elevators.add(e);
+        }
+        CarMetrics[] carMetrics = new CarMetrics[nElevators];
+        for (int i = 0; i < nElevators; i++)
+            carMetrics[i] = elevators.get(i).metrics;
+        metrics = new Metrics(carMetrics);
+    }
+    
+    /**
+     * Set the time (in milliseconds) needed by all the cars to open or close
+     * the doors and to move between adjacent floors.
+     */
+    public void setTiming(int doorsTime, int travelingTime) {
+        setKinematics(Kinematics.constant(doorsTime, travelingTime));
+    }
+    
+    /**
+     * Set the timing of all the cars.
+     */
+    public void setKinematics(Kinematics kinematics) {
+        for (int i = 0; i < elevators.size(); i++)
+            setKinematics(i, kinematics);
+    }
+    
+    /**
+     * Set the timing of the given car.
+     */
+    public void setKinematics(int car, Kinematics kinematics) {
+        if (kinematics == null)
+            throw new IllegalArgumentException("Missing kinematics");
+        elevators.get(car).kinematics = kinematics;
+    }
+    
+    /**
+     * Set the collective control of all the cars.
+     */
+    public void setControl(CollectiveControl control) {
+        for (Elevator e : elevators)
+            e.control = control;
+    }
+    
+    /**
+     * Set the policy assigning the hall calls to the cars.
+     */
+    public void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+    
+    /**
+     * Choose the car serving a call and register the call for it.
+     */
+    Elevator dispatch(Floor floor, Direction dir, Floor destination) {
+        Elevator car = dispatcher.assign(elevators, floor, dir, destination);
+        floor.call(dir, car.getIndex());
+        return car;
+    }
+    
+    /**
+     * Set the executor running the persons (one task per person).
+     * 
+     * By default each person has its own platform thread.  The executor must
+     * not bound the number of threads, since each person waits for the
+     * elevator on its own thread.  Must be called before the simulation
+     * starts.
+     */
+    public void setPersonExecutor(Executor executor) {
+        personExecutor = executor;
+    }
+    
+    /**
+     * Deliver the notifications to the observers on a separate thread.
+     * 
+     * The elevators no longer run the observers while holding their locks:
+     * they just queue the change, and bursts of changes of the same car are
+     * coalesced into a single notification.  The observers must then expect
+     * to see the state of the building some time after the change.  Must be
+     * called before the simulation starts.
+     */
+    public void setAsyncNotification(boolean async) {
+        notifier = (async ? new AsyncNotifier(elevators.size()) : null);
+        for (Elevator e : elevators)
+            e.setNotifier(notifier);
+    }
+    
+    /**
+     * Executor running each task on a new virtual thread.
+     * 
+     * Virtual threads make populations of hundreds of thousands of persons
+     * possible.  On a JVM without virtual threads (before Java 21) the
+     * default platform threads are used instead.
+     */
+    public static Executor virtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) m.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return new ThreadPerTaskExecutor("Person-thread-");
+        }
+    }
+    
+    /**
+     * Make the simulation reproducible.
+     * 
+     * The random choices of the persons and of the traffic are drawn from
+     * generators seeded from the given value.  Must be called before adding
+     * the persons.
+     */
+    public void setSeed(long seed) {
+        seeds = new Random(seed);
+    }
+    
+    /**
+     * New random generator, seeded in sequence when a seed has been set.
+     */
+    synchronized Random newRandom() {
+        return (seeds == null ? new Random() : new Random(seeds.nextLong()));
+    }
+    
+    /**
+     * Drive the building with the given traffic pattern.
+     * 
+     * New persons arrive at the floors following the pattern, while the
+     * persons already in the building choose their destinations with the
+     * probabilities of the pattern.  Must be called before the simulation
+     * starts; null restores the default random behavior.
+     */
+    public void setTraffic(TrafficPattern pattern) {
+        workload = (pattern == null ? null : new WorkloadGenerator(this, pattern, newRandom()));
+        traffic = pattern;
+    }
+    
+    /**
+     * Record the events of the simulation with the given recorder.
+     * 
+     * Must be called before the simulation starts.  The recorder is not
+     * closed by the building.  The trips of the population are not logged,
+     * so that it can be recorded only if it was drawn from a seed.
+     */
+    public void record(Recorder recorder) {
+        if (recorder != null)
+            checkSeeded(population);
+        this.recorder = recorder;
+        if (recorder != null)
+            recorder.begin(floors.size(), elevators.size());
+    }
+    
+    /**
+     * Replay a recorded simulation.
+     * 
+     * The persons make the trips and arrive as in the log, instead of
+     * following the traffic pattern or moving at random, and the events of
+     * the simulation are compared with the log.  Must be called before the
+     * simulation starts.  The population makes its trips again only if it
+     * is drawn from the seed of the recorded run.
+     */
+    public void replay(Replay replay) {
+        if (replay != null)
+            checkSeeded(population);
+        if (replay != null && (replay.floors != floors.size() || replay.cars != elevators.size()))
+            throw new IllegalArgumentException("The log was recorded in a building with "
+                    + replay.floors + " floors and " + replay.cars + " elevators");
+        this.replay = replay;
+        arrivals = (replay == null ? null : replay.new Arrivals(this));
+    }
+    
+    /**
+     * Log an event of the simulation, if recording or replaying.
+     */
+    void log(int kind, int a, int b, int c) {
+        if (recorder == null && replay == null)
+            return;
+        long t = clock.currentTimeMillis() - startTime;
+        if (recorder != null)
+            recorder.event(kind, t, a, b, c);
+        if (replay != null)
+            replay.check(kind, t, a, b, c);
+    }
+    
+    /**
+     * Add to the building a population of the given size, kept in primitive
+     * arrays instead of Person objects.
+     * 
+     * This way the building can hold millions of persons in a few hundred
+     * megabytes.  They start at the bottom floor and move like the persons
+     * added with addNewPerson; the queries by name and by floor include
+     * them, the snapshots do not.  Must be called once, before the
+     * simulation starts.
+     */
+    public void setPopulation(int size) {
+        if (started || population != null)
+            throw new IllegalStateException("The population must be set once, before the simulation starts");
+        if (size < 0)
+            throw new IllegalArgumentException("Negative population");
+        Population p = new Population(this, size);
+        if (recorder != null || replay != null)
+            checkSeeded(p);
+        population = p;
+        for (Elevator e : elevators)
+            e.population = population;
+    }
+    
+    /**
+     * Refuse to record or replay a population not drawn from a seed: its
+     * trips are not in the log, and they could not be made again.
+     */
+    static void checkSeeded(Population p) {
+        if (p != null && !p.seeded)
+            throw new IllegalStateException("A population can be recorded or replayed only if set after the seed");
     }
     
     /**
      * Insert a new person in the building.
      */
     public void addNewPerson() {
-        String name = "U" + (persons.size() + 1);
-        Person person = new Person(name, elevator, floors.get(0));
-        persons.add(person);
-        person.start();
-        elevator.notifyObservers();
+        Person person;
+        synchronized (persons) {
+            int id = persons.size();
+            person = new Person(id, "U" + (id + 1), this, floors.get(0));
+            persons.add(person);
+            personsByName.put(person.name, person);
+        }
+        if (started)
+            clock.start(person, personExecutor);
+        elevators.get(0).notifyObservers();
+    }
+    
+    /**
+     * The person leaves the building (for another one of the campus).
+     */
+    void leave(Person p) {
+        p.left = true;
+        p.setLocation(null);
+        elevators.get(0).notifyObservers();
+    }
+    
+    /**
+     * Insert a person arriving at a floor to go to the given destination.
+     */
+    void addArrival(Floor origin, Floor destination) {
+        Person person;
+        synchronized (persons) {
+            int id = persons.size();
+            person = new Person(id, "U" + (id + 1), this, origin, destination);
+            persons.add(person);
+            personsByName.put(person.name, person);
+        }
+        log(Recorder.ARRIVAL, person.id, origin.level, destination.level);
+        if (started)
+            clock.start(person, personExecutor);
+        elevators.get(0).notifyObservers();
     }
     
     /**
@@ -60,114 +357,314 @@ public class Building {
      * the empty string is returned.
      */
     public String getPersonDestination(String personName) {
-        for (Person p: persons) {
-            if (personName.equals(p.getPersonName())) {
-                Floor f = p.destination();
-                return (f == null ? "" : f.getName());
-            }
+        Person p = personsByName.get(personName);
+        if (p == null && population != null)
+            return levelName(population.destinationOf(personName));
+        Floor f = (p == null ? null : p.destination());
+        return (f == null ? "" : f.getName());
+    }
+    
+    /**
+     * Return the name of the floor where the person is (the empty string if
+     * the person is in an elevator or does not exist).
+     */
+    public String getPersonLocation(String personName) {
+        Person p = personsByName.get(personName);
+        if (p == null && population != null)
+            return levelName(population.locationOf(personName));
+        Floor f = (p == null ? null : p.getLocation());
+        return (f == null ? "" : f.getName());
+    }
+    
+    /** Name of the floor at the level (the empty string for -1). */
+    String levelName(int level) {
+        return (level < 0 ? "" : floors.get(level).getName());
+    }
+    
+    /**
+     * Number of persons in the building.
+     */
+    public int getPersonCount() {
+        synchronized (persons) {
+            return persons.size() + (population == null ? 0 : population.size());
         }
-        return "";
+    }
+    
+    /**
+     * Number of trips completed by the persons so far.
+     */
+    public long getCompletedTrips() {
+        return completedTrips.get();
+    }
+    
+    /**
+     * Times of the trips and activity of the elevators.
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
     
     /**
      * Get the list of names of the floors in the building.
      */
     public List<String> getFloorNames() {
-        List<String> ret = new ArrayList<>();
-        for (Floor f : floors)
-            ret.add(f.getName());
-        return ret;
+        // The floors do not change: the same read-only list is returned.
+        return register.floorNames;
+    }
+    
+    /**
+     * Number of elevators in the building.
+     */
+    public int getElevatorCount() {
+        return elevators.size();
     }
     
     /**
      * Get the name of the current floor of the elevator.
      */
     public String getElevatorFloor() {
-        return elevator.getCurrentFloor().getName();
+        return getElevatorFloor(0);
+    }
+    
+    /**
+     * Get the name of the current floor of the given elevator.
+     */
+    public String getElevatorFloor(int car) {
+        return elevators.get(car).getCurrentFloor().getName();
     }
     
     /**
      * Tell if the elevator is open.
      */
     public boolean isElevatorOpen() {
-        return elevator.isOpen();
+        return isElevatorOpen(0);
+    }
+    
+    /**
+     * Tell if the given elevator is open.
+     */
+    public boolean isElevatorOpen(int car) {
+        return elevators.get(car).isOpen();
     }
     
     /**
      * Call the floor with the given name.
+     * 
+     * The car serving the call is chosen by the dispatcher.
      */
     public void callFloor(String floorName, Direction dir) {
-        for (Floor f : floors)
-            if (floorName.equals(f.getName()))
-                f.call(dir);
+        Floor f = floorsByName.get(floorName);
+        if (f != null)
+            dispatch(f, dir, null);
     }
     
     /**
      * Request the stop at the floor with the given name.
      */
     public void requestStop(String floorName) {
-        for (Floor f : floors)
-            if (floorName.equals(f.getName()))
-                f.requestStop();
+        requestStop(floorName, 0);
+    }
+    
+    /**
+     * Request to the given elevator the stop at the floor with the given name.
+     */
+    public void requestStop(String floorName, int car) {
+        Floor f = floorsByName.get(floorName);
+        if (f != null)
+            f.requestStop(car);
     }
 
     /**
      * Retrieve the list of persons in a given floor.
+     * 
+     * The floors keep the index of their occupants: the time is proportional
+     * to the persons at the floor, not to the population of the building.
      */
     public List<String> getPersonAtFloorNames(String floorName) {
-        List<String> ret = new ArrayList<>();
-        for (Person p : persons) {
-            Floor loc = p.getLocation();
-            if (loc != null && floorName.equals(loc.getName()))
-                ret.add(p.getPersonName());
-        }
+        Floor f = floorsByName.get(floorName);
+        if (f == null)
+            return new ArrayList<>();
+        List<String> ret = f.getOccupantNames();
+        if (population != null)
+            ret.addAll(population.namesAt(f.level));
         return ret;
     }
     
+    /**
+     * Number of persons at the floor with the given name.
+     */
+    public int countPersonsAtFloor(String floorName) {
+        Floor f = floorsByName.get(floorName);
+        if (f == null)
+            return 0;
+        return f.getOccupancy() + (population == null ? 0 : population.countAt(f.level));
+    }
+    
+    /**
+     * Snapshot of the building, taken on a change of the given car.
+     */
+    ElevatorSnapshot snapshot(int car) {
+        // Taken while holding the list, instead of copying it.
+        synchronized (persons) {
+            return ElevatorSnapshot.take(clock.currentTimeMillis(), car, elevators,
+                    register, persons);
+        }
+    }
+    
+    /**
+     * Add a new observer receiving the snapshots to all the elevators.
+     */
+    public void addElevatorObserver(SnapshotObserver observer) {
+        for (Elevator e : elevators)
+            e.addObserver(observer);
+    }
+    
+    /**
+     * Add an observer of the floors passed by the cars without stopping.
+     */
+    public void addPassingObserver(PassingObserver observer) {
+        for (Elevator e : elevators)
+            e.passingObservers.add(observer);
+    }
+    
+    /**
+     * Remove an observer receiving the snapshots from all the elevators.
+     */
+    public void removeElevatorObserver(SnapshotObserver observer) {
+        for (Elevator e : elevators)
+            e.removeObserver(observer);
+    }
+    
     /**
      * Names of the passengers in the elevator.
      */
     public List<String> getPersonsInElevatorNames() {
+        return getPersonsInElevatorNames(0);
+    }
+    
+    /**
+     * Names of the passengers in the given elevator.
+     */
+    public List<String> getPersonsInElevatorNames(int car) {
         List<String> ret = new ArrayList<>();
-        for (Person p : elevator.getPassengers())
+        for (Person p : elevators.get(car).passengers.copy())
             ret.add(p.getPersonName());
+        if (population != null)
+            ret.addAll(population.namesIn(car));
         return ret;
     }
     
     /**
-     * Add a new observer to the elevator.
+     * Add a new observer to all the elevators.
      */
     public void addElevatorObserver(ElevatorObserver observer) {
-        elevator.addObserver(observer);
+        for (Elevator e : elevators)
+            e.addObserver(observer);
+    }
+    
+    /**
+     * The clock measuring the time of the simulation.
+     * 
+     * The thread that started the simulation must use it to wait for the
+     * simulation to progress (with a virtual clock, the other threads run
+     * only while it sleeps).
+     */
+    public SimClock getClock() {
+        return clock;
+    }
+    
+    /**
+     * Continue from a checkpoint, instead of starting from scratch.
+     * 
+     * Must be called before the simulation starts, on a new building with
+     * a virtual clock and the same floors and cars of the building where
+     * the checkpoint was taken.  The configuration (timing, control,
+     * dispatcher, traffic, seed) is the one of this building, so the same
+     * checkpoint can be continued in different ways.
+     */
+    public void restore(Checkpoint checkpoint) throws IOException {
+        if (replay != null)
+            throw new IllegalStateException("Replayed simulations cannot be restored");
+        checkpoint.restore(this);
     }
     
     /**
      * Start the simulation.
      */
     public void startSimulation() {
-        elevatorThread.start();
-        for (Person p : persons)
-            p.start();
+        clock.attach();
+        if (restoreOrder == null)
+            startTime = clock.currentTimeMillis();
+        started = true;
+        if (notifier != null)
+            notifier.start();
+        // The persons of a checkpoint queue again before the cars move.
+        if (restoreOrder != null)
+            for (Person p : restoreOrder)
+                clock.start(p, personExecutor);
+        for (Elevator e : elevators)
+            clock.start(e, elevatorExecutor);
+        if (restoreOrder == null)
+            for (Person p : persons)
+                clock.start(p, personExecutor);
+        restoreOrder = null;
+        for (Elevator e : elevators)
+            log(Recorder.STATE, e.index, e.position.level, 0);
+        if (population != null)
+            clock.start(population, personExecutor);
+        if (arrivals != null)
+            clock.start(arrivals, personExecutor);
+        else if (workload != null)
+            clock.start(workload, personExecutor);
     }
     
     /**
      * Stop the simulation.
      */
     public void stopSimulation() {
+        if (arrivals != null) {
+            arrivals.terminate();
+            try {
+                clock.join(arrivals);
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+        } else if (workload != null) {
+            workload.terminate();
+            try {
+                clock.join(workload);
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+        }
+        if (population != null) {
+            population.terminate();
+            try {
+                clock.join(population);
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+        }
         for (Person p : persons)
             p.terminate();
         for (Person p : persons) {
             try {
-                p.join();
+                clock.join(p);
             } catch (InterruptedException ex) {
                 System.err.println(ex);
             }
         }
-        elevator.terminate();
-        try {
-            elevatorThread.join();
-        } catch (InterruptedException ex) {
-            System.err.println(ex);
+        for (Elevator e : elevators)
+            e.terminate();
+        for (Elevator e : elevators) {
+            try {
+                clock.join(e);
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
         }
+        if (notifier != null)
+            notifier.shutdown();
+        clock.detach();
     }
 }
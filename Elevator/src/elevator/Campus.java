@@ -0,0 +1,262 @@
+package elevator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A campus of buildings simulated together.
+ *
+ * Each building is a shard: it runs on its own thread, with its own clock,
+ * and shares no lock with the others, so that the campus scales with the
+ * number of processors.  The shards advance in epochs of simulated time; at
+ * the end of each epoch the coordinator moves between the buildings the
+ * persons who left them.  A person arriving at the lobby of a building
+ * with a single trip (as those brought by a traffic pattern) leaves it with
+ * the given probability, and enters another building of the campus at the
+ * start of the next epoch, at its lobby, to go to a random floor.  The
+ * walk between the buildings takes therefore up to an epoch.
+ *
+ * The buildings should use virtual clocks, so that the shards run as fast
+ * as their threads allow.
+ *
+ * @author Claudio Cusano
+ */
+public class Campus {
+
+    /**
+     * A building with its thread and the persons moving in and out of it.
+     */
+    static class Shard {
+        final Campus campus;
+        final Building building;
+        final ExecutorService executor;
+        final Random random;
+        int outgoing;  // Left during the epoch (guarded by the shard).
+        int incoming;  // To be brought in at the next epoch.
+        long transfersIn;
+        long transfersOut;
+
+        Shard(Campus campus, Building building) {
+            this.campus = campus;
+            this.building = building;
+            this.random = building.newRandom();
+            this.executor = Executors.newSingleThreadExecutor();
+        }
+
+        /**
+         * Called when a person with a single trip has reached the lobby:
+         * maybe the person leaves the building.
+         */
+        synchronized void atLobby(Person p) {
+            if (random.nextDouble() < campus.leaving) {
+                building.leave(p);
+                outgoing++;
+            }
+        }
+
+        /** Take the count of the persons who left since the last call. */
+        synchronized int takeOutgoing() {
+            int n = outgoing;
+            outgoing = 0;
+            transfersOut += n;
+            return n;
+        }
+
+        /** Bring in the persons coming from the other buildings. */
+        void admitIncoming() {
+            List<Floor> floors = building.floors;
+            for (int i = 0; i < incoming; i++) {
+                Floor dest = floors.get(1 + random.nextInt(floors.size() - 1));
+                building.addArrival(floors.get(0), dest);
+            }
+            transfersIn += incoming;
+            incoming = 0;
+        }
+    }
+
+    final long epoch;
+    final List<Shard> shards = new ArrayList<>();
+    double leaving;
+    Random random = new Random();
+    boolean simulated;
+
+    /**
+     * Create the campus, whose buildings are synchronized at the end of
+     * each epoch (in milliseconds of simulated time).
+     */
+    public Campus(long epoch) {
+        if (epoch <= 0)
+            throw new IllegalArgumentException("The epoch must be positive");
+        this.epoch = epoch;
+    }
+
+    /**
+     * Set the probability that a person arriving at a lobby leaves the
+     * building for another one (0 by default).  Must be called before the
+     * simulation.
+     */
+    public void setTransferProbability(double p) {
+        if (p < 0 || p > 1)
+            throw new IllegalArgumentException("Invalid probability");
+        leaving = p;
+    }
+
+    /**
+     * Make the choice of the buildings where the persons go reproducible
+     * (the buildings have their own seeds).
+     */
+    public void setSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Add a building to the campus, and return its index.
+     *
+     * The building must not have been started, and it must not be added to
+     * another campus.
+     */
+    public int addBuilding(Building building) {
+        if (building.started || building.shard != null)
+            throw new IllegalArgumentException("The building is already in use");
+        if (building.floors.size() < 2)
+            throw new IllegalArgumentException("The building needs at least two floors");
+        Shard s = new Shard(this, building);
+        building.shard = s;
+        shards.add(s);
+        return shards.size() - 1;
+    }
+
+    /**
+     * Number of buildings.
+     */
+    public int getBuildingCount() {
+        return shards.size();
+    }
+
+    /**
+     * The building with the given index.
+     */
+    public Building getBuilding(int i) {
+        return shards.get(i).building;
+    }
+
+    /**
+     * Persons who left the given building for another one.
+     */
+    public long getTransfersOut(int i) {
+        return shards.get(i).transfersOut;
+    }
+
+    /**
+     * Persons who came in the given building from another one.
+     */
+    public long getTransfersIn(int i) {
+        return shards.get(i).transfersIn;
+    }
+
+    /**
+     * Trips completed in all the buildings.
+     */
+    public long getCompletedTrips() {
+        long n = 0;
+        for (Shard s : shards)
+            n += s.building.getCompletedTrips();
+        return n;
+    }
+
+    /**
+     * Metrics of the whole campus: the times of the trips in all the
+     * buildings, and the cars of all the buildings, in order.
+     */
+    public Metrics getMetrics() {
+        List<Metrics> parts = new ArrayList<>();
+        for (Shard s : shards)
+            parts.add(s.building.getMetrics());
+        return Metrics.combine(parts);
+    }
+
+    /**
+     * Simulate the campus for the given time (in milliseconds), then stop
+     * all the buildings.  A campus is simulated only once.
+     */
+    public void simulate(long millis) throws InterruptedException {
+        if (simulated)
+            throw new IllegalStateException("The campus has already been simulated");
+        if (shards.isEmpty())
+            throw new IllegalStateException("The campus has no buildings");
+        simulated = true;
+        try {
+            runAll(new Step() {
+                @Override
+                void run(Shard s) {
+                    s.building.startSimulation();
+                }
+            });
+            for (long t = 0; t < millis; t += epoch) {
+                final long step = Math.min(epoch, millis - t);
+                runAll(new Step() {
+                    @Override
+                    void run(Shard s) throws InterruptedException {
+                        s.admitIncoming();
+                        s.building.getClock().sleep(step);
+                    }
+                });
+                route();
+            }
+            runAll(new Step() {
+                @Override
+                void run(Shard s) {
+                    s.building.stopSimulation();
+                }
+            });
+        } finally {
+            for (Shard s : shards)
+                s.executor.shutdown();
+        }
+    }
+
+    /**
+     * Send each person who left a building to one of the others (the
+     * shards are idle).
+     */
+    void route() {
+        int n = shards.size();
+        for (int i = 0; i < n; i++) {
+            int out = shards.get(i).takeOutgoing();
+            for (int k = 0; k < out; k++) {
+                int j = (n == 1 ? i : (i + 1 + random.nextInt(n - 1)) % n);
+                shards.get(j).incoming++;
+            }
+        }
+    }
+
+    /** Action made by each shard on its own thread. */
+    abstract static class Step {
+        abstract void run(Shard s) throws InterruptedException;
+    }
+
+    /** Run the step on all the shards, and wait for them. */
+    void runAll(final Step step) throws InterruptedException {
+        List<Future<Void>> futures = new ArrayList<>(shards.size());
+        for (final Shard s : shards)
+            futures.add(s.executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    step.run(s);
+                    return null;
+                }
+            }));
+        try {
+            for (Future<Void> f : futures)
+                f.get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Building failed", ex.getCause());
+        }
+    }
+}
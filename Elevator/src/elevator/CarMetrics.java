@@ -0,0 +1,54 @@
+package elevator;
+
+/**
+ * Counters of the activity of an elevator.
+ *
+ * They are updated only by the thread of the elevator, except the wakeups
+ * of the persons, which are counted under the lock of the car.
+ *
+ * @author Claudio Cusano
+ */
+public class CarMetrics {
+
+    final int capacity;
+    long floorsTraveled;
+    long stops;
+    long doorCycles;
+    long passengerFloors;  // Sum of the passengers on board at each hop.
+    long spuriousWakeups;  // Guarded by the lock of the car.
+
+    CarMetrics(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Number of floors traveled. */
+    public long getFloorsTraveled() {
+        return floorsTraveled;
+    }
+
+    /** Number of stops made to serve a call or a stop request. */
+    public long getStops() {
+        return stops;
+    }
+
+    /** Number of times the doors have been closed. */
+    public long getDoorCycles() {
+        return doorCycles;
+    }
+
+    /**
+     * Number of times a person waiting for the car was woken up, and found
+     * that it still had to wait (the car was not at its floor, or it was
+     * full).
+     */
+    public long getSpuriousWakeups() {
+        return spuriousWakeups;
+    }
+
+    /**
+     * Average fraction of the capacity used while traveling.
+     */
+    public double getLoadFactor() {
+        return (floorsTraveled == 0 ? 0 : passengerFloors / (double) (floorsTraveled * capacity));
+    }
+}
@@ -0,0 +1,385 @@
+package elevator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * State of a running building, from which other simulations can continue.
+ *
+ * The checkpoint holds the time, the calls and stop requests, the state of
+ * each car (floor, doors, direction, passengers, queues at the floors), the
+ * metrics, and the phase of every person: resting until a given time,
+ * waiting for a car, riding, about to call, or done.  Everything is encoded
+ * as variable length integers, in a versioned binary format.  It does not
+ * hold the configuration (timing, control, dispatcher, traffic) of the
+ * building, which can change between the runs continuing from it.
+ *
+ * The activities are resumed at the start of their phase: a car running
+ * between two floors restarts from the last one it passed, a car with the
+ * doors open closes them before leaving, and the random generators are
+ * seeded again from the seed of the new building.  Continuing from a
+ * checkpoint is therefore deterministic, but it does not reproduce exactly
+ * the run where the checkpoint was taken.  Only simulations on the virtual
+ * clock can be checkpointed, and the recording, the replay and the campus
+ * are not part of the state.
+ *
+ * @author Claudio Cusano
+ */
+public final class Checkpoint {
+
+    static final int MAGIC = 0x45434b50;  // "ECKP"
+    static final int VERSION = 1;
+
+    // Phases of the persons.
+    static final int RESTING = 0;  // Until the wake time.
+    static final int PENDING = 1;  // Arrived, about to call a car.
+    static final int WAITING = 2;  // In the queue of the car.
+    static final int RIDING = 3;   // In the car.
+    static final int DONE = 4;     // Made its single trip, or left.
+
+    final byte[] data;
+
+    Checkpoint(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Take the checkpoint of a running building.
+     *
+     * Must be called by the thread driving the simulation on a virtual
+     * clock (the one which started it), so that all the other activities
+     * are parked.
+     */
+    public static Checkpoint take(Building b) {
+        if (!(b.clock instanceof VirtualClock) || !((VirtualClock) b.clock).isDriving() || !b.started)
+            throw new IllegalStateException("Checkpoints are taken by the thread driving a virtual clock");
+        if (b.replay != null)
+            throw new IllegalStateException("Replayed simulations cannot be checkpointed");
+        VirtualClock clock = (VirtualClock) b.clock;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Out out = new Out(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            int floors = b.floors.size();
+            int cars = b.elevators.size();
+            out.writeVar(floors);
+            out.writeVar(cars);
+            out.writeVar(clock.currentTimeMillis());
+            out.writeVar(b.startTime);
+            out.writeVar(b.completedTrips.get());
+            RequestRegister r = b.register;
+            for (int i = 0; i < r.bits.length(); i++)
+                out.writeVar(r.bits.get(i));
+            for (int i = 0; i < r.callTimes.length(); i++)
+                out.writeVar(r.callTimes.get(i));
+            Metrics m = b.metrics;
+            writeHistogram(out, m.waitTime);
+            writeHistogram(out, m.rideTime);
+            writeHistogram(out, m.journeyTime);
+
+            List<Person> persons;
+            synchronized (b.persons) {
+                persons = new ArrayList<>(b.persons);
+            }
+            out.writeVar(persons.size());
+            for (Person p : persons) {
+                int phase = phase(p, clock);
+                out.writeVar(phase);
+                out.writeVar((p.singleTrip ? 1 : 0) | (p.left ? 2 : 0));
+                out.writeVar(p.location == null ? -1 : p.location.level);
+                out.writeVar(p.destination == null ? -1 : p.destination.level);
+                out.writeVar(p.callTime);
+                // Admitted, but not yet resumed to take the time.
+                long boarded = p.boardTime;
+                if (phase == RIDING && boarded < p.callTime)
+                    boarded = clock.currentTimeMillis();
+                out.writeVar(boarded);
+                if (phase == RESTING)
+                    out.writeVar(clock.resumeTime(p));
+                if (phase == WAITING || phase == RIDING)
+                    out.writeVar(p.elevator.index);
+            }
+
+            for (Elevator e : b.elevators) {
+                Direction d = e.state.direction();
+                out.writeVar(e.position.level);
+                out.writeVar(e.open ? 1 : 0);
+                out.writeVar(d == null ? 0 : d == Direction.UP ? 1 : 2);
+                out.writeVar(e.lastDirection == null ? 0 : e.lastDirection == Direction.UP ? 1 : 2);
+                out.writeVar(e.metrics.floorsTraveled);
+                out.writeVar(e.metrics.stops);
+                out.writeVar(e.metrics.doorCycles);
+                out.writeVar(e.metrics.passengerFloors);
+                out.writeVar(e.passengers.size());
+                for (int i = 0; i < e.passengers.size(); i++)
+                    out.writeVar(e.passengers.get(i).id);
+                for (int level = 0; level < floors; level++) {
+                    writeQueue(out, e.waitingAt(level, Direction.UP));
+                    writeQueue(out, e.waitingAt(level, Direction.DOWN));
+                }
+            }
+
+            out.writeVar(b.population == null ? 0 : 1);
+            if (b.population != null)
+                b.population.write(out);
+            out.flush();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);  // Writing to memory.
+        }
+        return new Checkpoint(bytes.toByteArray());
+    }
+
+    /** Phase of the person, who is not running. */
+    static int phase(Person p, VirtualClock clock) {
+        if (p.elevator != null)
+            return (p.location == null ? RIDING : WAITING);
+        if (p.left || (p.singleTrip && p.destination == null))
+            return DONE;
+        if (p.destination != null)
+            return PENDING;
+        return (clock.resumeTime(p) < 0 ? DONE : RESTING);
+    }
+
+    static void writeQueue(Out out, Iterable<Person> queue) throws IOException {
+        if (queue == null) {
+            out.writeVar(0);
+            return;
+        }
+        int n = 0;
+        for (Person p : queue)
+            n++;
+        out.writeVar(n);
+        for (Person p : queue)
+            out.writeVar(p.id);
+    }
+
+    static void writeHistogram(Out out, Histogram h) throws IOException {
+        int n = 0;
+        for (int i = 0; i < Histogram.BUCKETS; i++)
+            if (h.counts.get(i) != 0)
+                n++;
+        out.writeVar(n);
+        for (int i = 0; i < Histogram.BUCKETS; i++)
+            if (h.counts.get(i) != 0) {
+                out.writeVar(i);
+                out.writeVar(h.counts.get(i));
+            }
+        out.writeVar(h.count.get());
+        out.writeVar(h.sum.get());
+        out.writeVar(h.max.get());
+    }
+
+    static void readHistogram(In in, Histogram h) throws IOException {
+        int n = in.readInt(0, Histogram.BUCKETS);
+        for (int k = 0; k < n; k++) {
+            int i = in.readInt(0, Histogram.BUCKETS - 1);
+            h.counts.set(i, in.readVar());
+        }
+        h.count.set(in.readVar());
+        h.sum.set(in.readVar());
+        h.max.set(in.readVar());
+    }
+
+    /**
+     * Set up the building (created and configured, but not yet started) in
+     * the state of the checkpoint.  The building must have the same floors
+     * and cars, and no persons; startSimulation continues from there.
+     */
+    void restore(Building b) throws IOException {
+        if (!(b.clock instanceof VirtualClock))
+            throw new IllegalStateException("Checkpoints are restored on a virtual clock");
+        if (b.started || !b.persons.isEmpty())
+            throw new IllegalStateException("The building must be new to restore a checkpoint");
+        In in = new In(new ByteArrayInputStream(data));
+        in.header();
+        int floors = in.readInt(0, Integer.MAX_VALUE);
+        int cars = in.readInt(0, Integer.MAX_VALUE);
+        if (floors != b.floors.size() || cars != b.elevators.size())
+            throw new IllegalArgumentException("The checkpoint was taken in a building with "
+                    + floors + " floors and " + cars + " elevators");
+        ((VirtualClock) b.clock).setTime(in.readVar());
+        b.startTime = in.readVar();
+        b.completedTrips.set(in.readVar());
+        RequestRegister r = b.register;
+        for (int i = 0; i < r.bits.length(); i++)
+            r.bits.set(i, in.readVar());
+        for (int i = 0; i < r.callTimes.length(); i++)
+            r.callTimes.set(i, in.readVar());
+        readHistogram(in, b.metrics.waitTime);
+        readHistogram(in, b.metrics.rideTime);
+        readHistogram(in, b.metrics.journeyTime);
+
+        int n = in.readInt(0, Integer.MAX_VALUE);
+        Person[] persons = new Person[n];
+        boolean[] queued = new boolean[n];
+        for (int id = 0; id < n; id++) {
+            int phase = in.readInt(RESTING, DONE);
+            int flags = (int) in.readVar();
+            int location = in.readInt(-1, floors - 1);
+            int destination = in.readInt(-1, floors - 1);
+            Floor at = (location < 0 ? b.floors.get(0) : b.floors.get(location));
+            Person p = new Person(id, "U" + (id + 1), b, at);
+            p.singleTrip = (flags & 1) != 0;
+            p.left = (flags & 2) != 0;
+            if (location < 0)
+                p.setLocation(null);
+            p.destination = (destination < 0 ? null : b.floors.get(destination));
+            p.callTime = in.readVar();
+            p.boardTime = in.readVar();
+            if (phase == RESTING)
+                p.wakeTime = in.readVar();
+            if (phase == WAITING || phase == RIDING)
+                p.elevator = b.elevators.get(in.readInt(0, cars - 1));
+            if ((phase == WAITING || phase == RIDING || phase == PENDING) && p.destination == null)
+                throw new IOException("Malformed checkpoint");
+            p.resume = phase;
+            persons[id] = p;
+            b.persons.add(p);
+            b.personsByName.put(p.name, p);
+        }
+
+        // The persons waiting for the cars start first, in order of queue,
+        // so that they queue again in the same order.
+        List<Person> order = new ArrayList<>(n);
+        for (Elevator e : b.elevators) {
+            e.position = b.floors.get(in.readInt(0, floors - 1));
+            e.open = in.readVar() != 0;
+            int d = in.readInt(0, 2);
+            e.restoreDirection(d == 0 ? null : d == 1 ? Direction.UP : Direction.DOWN);
+            int last = in.readInt(0, 2);
+            e.lastDirection = (last == 0 ? null : last == 1 ? Direction.UP : Direction.DOWN);
+            e.metrics.floorsTraveled = in.readVar();
+            e.metrics.stops = in.readVar();
+            e.metrics.doorCycles = in.readVar();
+            e.metrics.passengerFloors = in.readVar();
+            int k = in.readInt(0, n);
+            for (int i = 0; i < k; i++)
+                e.passengers.add(persons[in.readInt(0, n - 1)]);
+            for (int level = 0; level < 2 * floors; level++) {
+                k = in.readInt(0, n);
+                for (int i = 0; i < k; i++) {
+                    int id = in.readInt(0, n - 1);
+                    if (!queued[id])
+                        order.add(persons[id]);
+                    queued[id] = true;
+                }
+            }
+        }
+        for (int id = 0; id < n; id++)
+            if (!queued[id])
+                order.add(persons[id]);
+        b.restoreOrder = order;
+
+        if (in.readVar() != 0) {
+            int size = in.readInt(0, Integer.MAX_VALUE);
+            if (b.population == null)
+                b.setPopulation(size);
+            else if (b.population.size != size)
+                throw new IllegalArgumentException("The checkpoint has a population of " + size);
+            b.population.read(in);
+        } else if (b.population != null) {
+            throw new IllegalArgumentException("The checkpoint has no population");
+        }
+    }
+
+    /**
+     * Read a checkpoint written by write.
+     */
+    public static Checkpoint read(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            bytes.write(buf, 0, n);
+        Checkpoint c = new Checkpoint(bytes.toByteArray());
+        new In(new ByteArrayInputStream(c.data)).header();
+        return c;
+    }
+
+    /**
+     * Write the checkpoint.
+     */
+    public void write(OutputStream out) throws IOException {
+        out.write(data);
+        out.flush();
+    }
+
+    /**
+     * Size of the checkpoint, in bytes.
+     */
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * Writer of the checkpoint: signed values are zigzag encoded in seven
+     * bits per byte.
+     */
+    static class Out extends DataOutputStream {
+        Out(OutputStream out) {
+            super(out);
+        }
+
+        void writeVar(long v) throws IOException {
+            long z = (v << 1) ^ (v >> 63);
+            while ((z & ~0x7fL) != 0) {
+                writeByte((int) (z & 0x7f) | 0x80);
+                z >>>= 7;
+            }
+            writeByte((int) z);
+        }
+    }
+
+    /**
+     * Reader of the checkpoint.
+     */
+    static class In extends DataInputStream {
+        In(InputStream in) {
+            super(in);
+        }
+
+        void header() throws IOException {
+            if (readInt() != MAGIC)
+                throw new IOException("Not a checkpoint");
+            int version = readUnsignedByte();
+            if (version != VERSION)
+                throw new IOException("Unsupported checkpoint version " + version);
+        }
+
+        long readVar() throws IOException {
+            long z = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int x = read();
+                if (x < 0)
+                    throw new EOFException("Truncated checkpoint");
+                z |= (long) (x & 0x7f) << shift;
+                if ((x & 0x80) == 0)
+                    return (z >>> 1) ^ -(z & 1);
+            }
+            throw new IOException("Malformed checkpoint");
+        }
+
+        /** Read a value which must be in the given range. */
+        int readInt(int min, int max) throws IOException {
+            long v = readVar();
+            if (v < min || v > max)
+                throw new IOException("Malformed checkpoint");
+            return (int) v;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint(" + data.length + " bytes, " + Arrays.hashCode(data) + ")";
+    }
+}
@@ -0,0 +1,21 @@
+package elevator;
+
+/**
+ * Collective control of a car: the direction it takes after serving a
+ * floor.
+ *
+ * A moving car runs to the next floor it has to serve.  There the control
+ * tells whether it keeps going or turns back; when the car has served all
+ * the requests ahead of it, or when it is idle, the control tells where it
+ * leaves for.
+ *
+ * @author Claudio Cusano
+ */
+public interface CollectiveControl {
+    /**
+     * Direction the car has to take from its floor, given the current
+     * direction of travel (null if the car is idle).  Null means that the
+     * car has nothing to do.
+     */
+    Direction chooseDirection(Elevator car, Direction current);
+}
@@ -0,0 +1,48 @@
+package elevator;
+
+import static elevator.Direction.DOWN;
+import static elevator.Direction.UP;
+
+/**
+ * LOOK driven by the destinations of the passengers.
+ *
+ * A car with passengers keeps going while some of them have to get off
+ * ahead, and picks up the hall calls on its way only if it has room; once
+ * the destinations ahead have been served, it turns towards the others.
+ * An empty car behaves as LOOK, and a car starting from rest goes towards
+ * the nearest request.
+ *
+ * @author Claudio Cusano
+ */
+public class DestinationControl implements CollectiveControl {
+
+    @Override
+    public Direction chooseDirection(Elevator car, Direction current) {
+        RequestRegister r = car.register;
+        int level = car.position.level;
+        Direction last = (current != null ? current : car.lastDirection);
+        if (last == null)
+            return nearest(car);
+        Direction back = (last == UP ? DOWN : UP);
+        if (r.countStops(car.index, level, last) > 0)
+            return last;
+        if (r.countStops(car.index, level, back) > 0)
+            return back;
+        if (!car.isFull() && car.countRequests(last) > 0)
+            return last;
+        return (car.countRequests(back) > 0 ? back : null);
+    }
+
+    /** Direction of the nearest request (null if none). */
+    static Direction nearest(Elevator car) {
+        RequestRegister r = car.register;
+        int level = car.position.level;
+        int up = r.nearestRequest(car.index, level, UP);
+        int down = r.nearestRequest(car.index, level, DOWN);
+        if (up < 0)
+            return (down < 0 ? null : DOWN);
+        if (down < 0 || up - level <= level - down)
+            return UP;
+        return DOWN;
+    }
+}
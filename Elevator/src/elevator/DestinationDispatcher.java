@@ -0,0 +1,37 @@
+package elevator;
+
+import java.util.List;
+
+/**
+ * Destination dispatch: the person tells the destination when calling, and
+ * the car is chosen so as to minimize the time of the whole journey.
+ *
+ * Persons going to a floor where a car is already supposed to stop are
+ * grouped in that car, since they do not cost it an additional stop.  Calls
+ * without a destination are assigned by estimated time of arrival.
+ *
+ * @author Claudio Cusano
+ */
+public class DestinationDispatcher implements Dispatcher {
+
+    Dispatcher fallback = new EtaDispatcher();
+
+    @Override
+    public Elevator assign(List<Elevator> cars, Floor floor, Direction dir, Floor destination) {
+        if (destination == null)
+            return fallback.assign(cars, floor, dir, destination);
+        Elevator best = null;
+        long bestTime = Long.MAX_VALUE;
+        for (Elevator car : cars) {
+            long time = car.estimateArrival(floor, dir);
+            time += car.kinematics.travelTime(floor.distance(destination));
+            if (!car.stopRequested(destination))
+                time += car.kinematics.stopTime();
+            if (time < bestTime) {
+                best = car;
+                bestTime = time;
+            }
+        }
+        return best;
+    }
+}
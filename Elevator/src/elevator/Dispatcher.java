@@ -0,0 +1,19 @@
+package elevator;
+
+import java.util.List;
+
+/**
+ * Group control: choose the car that serves a hall call.
+ *
+ * @author Claudio Cusano
+ */
+public interface Dispatcher {
+    /**
+     * Select, among the cars of the building, the one that will serve a call
+     * at the floor for the given direction.
+     *
+     * The destination of the person is given when known (for destination
+     * dispatch), otherwise it is null.
+     */
+    Elevator assign(List<Elevator> cars, Floor floor, Direction dir, Floor destination);
+}
@@ -2,8 +2,14 @@ package elevator;
 
 import static elevator.Direction.DOWN;
 import static elevator.Direction.UP;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
@@ -13,52 +19,165 @@ import java.util.List;
  */
 public class Elevator extends Subject implements Runnable {
 
-    static int DOORS_TIME = 1000;  // Milliseconds
-    static int TRAVELING_TIME = 1500;  // Milliseconds
-    
+    Kinematics kinematics = Kinematics.DEFAULT;
+    CollectiveControl control = new RequestCountControl();
+    Direction lastDirection;  // Of the last run (null before the first).
+    int index;
     ElevatorState state;
     Floor position;
     boolean open;
-    boolean terminated;
+    volatile boolean terminated;
     int capacity;
-    List<Person> passengers;
+    final PassengerList passengers;
+    SimClock clock;
+    RequestRegister register;
+    Building building;  // Null if the elevator is not part of a building.
+    Population population;  // Null if the building has none.
+    final CarMetrics metrics;
+    
+    // Explicit lock instead of the monitor of the elevator: persons running
+    // on virtual threads do not pin their carrier while waiting on it.
+    final ReentrantLock lock = new ReentrantLock();
+    
+    // Persons waiting for the car, grouped by floor (and by direction, for
+    // those who want to board), so that a door event wakes up only the
+    // persons at that floor.
+    final FloorQueues[] queues;
+    
+    // The idle car waits here for a call or a stop request.
+    final Condition requested = lock.newCondition();
+    volatile boolean idle;
+    
+    // Persons who got in or out since the doors opened.
+    int movements;
+    
+    // Persons boarding together (guarded by the lock, empty between uses).
+    final List<Person> batch = new ArrayList<>();
+    
+    // Notified when the car passes a floor without stopping.
+    final List<PassingObserver> passingObservers = new CopyOnWriteArrayList<>();
     
     /**
      * Create the elevator and place it at the given floor.
      */
     public Elevator(Floor startingFloor, int capacity) {
-        state = new WaitingState();
+        this(startingFloor, capacity, new WallClock());
+    }
+    
+    /**
+     * Create the elevator, place it at the given floor and let it measure
+     * the time with the given clock.
+     */
+    public Elevator(Floor startingFloor, int capacity, SimClock clock) {
+        this(0, startingFloor, capacity, clock);
+    }
+    
+    /**
+     * Create the car with the given index (its position in the building,
+     * which identifies its calls and stop requests at the floors).
+     */
+    Elevator(int index, Floor startingFloor, int capacity, SimClock clock) {
+        this.index = index;
+        if (startingFloor.register == null) {
+            // Floors not belonging to a building: this is their only car.
+            Floor bottom = startingFloor;
+            while (bottom.prev != null)
+                bottom = bottom.prev;
+            new RequestRegister(bottom, index + 1);
+        }
+        register = startingFloor.register;
+        register.elevators[index] = this;
+        queues = new FloorQueues[register.floors];
+        state = WaitingState.INSTANCE;
         position = startingFloor;
         open = true;
         this.capacity = capacity;
-        passengers = new ArrayList<>();
+        this.clock = clock;
+        metrics = new CarMetrics(capacity);
+        // Copied without the lock by the snapshots.
+        passengers = new PassengerList(capacity);
     }
 
     @Override
     public void run() {
-        // Behavior of the elevator.
-        terminated = false;
-        
-        /*=================================================================
-         * 
-         * --- TO BE COMPLETED ---
-         * 
-         * The elevator continues to operate until the thread it is not
-         * asked to stop by calling the terminate method.
-         * 
-         * Each action of the elevator is made according to its sate
-         * (state pattern).
-         * 
-         *=================================================================*/
+        // Behavior of the elevator: each action is made according to its
+        // state (state pattern), until the termination is requested.
+        while (!terminated)
+            state.move(this);
     }
     
     /**
      * Ask the termination of the thread.
      */
-    public synchronized void terminate()
+    public void terminate()
     {
-        terminated = true;
-        notifyAll();
+        lock.lock();
+        try {
+            terminated = true;
+            clock.signalAll(requested);
+            for (FloorQueues q : queues)
+                if (q != null)
+                    q.signalAll(clock);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Wait for the given time according to the clock of the elevator.
+     */
+    void pause(long millis) {
+        try {
+            clock.sleep(millis);
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+    }
+    
+    /**
+     * Wait until the given time, if it is not past.
+     */
+    void pauseUntil(long time) {
+        long millis = time - clock.currentTimeMillis();
+        if (millis > 0)
+            pause(millis);
+    }
+    
+    /**
+     * Wait until the car receives a call or a stop request (or until the
+     * termination is requested).
+     */
+    void waitForRequest() {
+        lock.lock();
+        try {
+            // The flag is set before checking the requests: a request
+            // registered after the check will see it and wake the car.
+            idle = true;
+            while (!terminated && countRequests(UP) == 0 && countRequests(DOWN) == 0) {
+                try {
+                    clock.await(requested, lock);
+                } catch (InterruptedException ex) {
+                    System.err.println(ex);
+                }
+            }
+            idle = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Called when a new request for the car has been registered.
+     */
+    void requestArrived() {
+        if (!idle)
+            return;
+        lock.lock();
+        try {
+            clock.signalAll(requested);
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -66,8 +185,35 @@ public class Elevator extends Subject implements Runnable {
      */
     void setState(ElevatorState state) {
         this.state = state;
+        if (state.direction() != null)
+            lastDirection = state.direction();
+        if (building != null) {
+            Direction d = state.direction();
+            building.log(Recorder.STATE, index, position.level, (d == null ? 0 : d == UP ? 1 : 2));
+        }
     }
 
+    /**
+     * Index of the car in the building.
+     */
+    public int getIndex() {
+        return index;
+    }
+    
+    /**
+     * Maximum number of passengers.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Direction of travel, or null when the elevator is waiting.
+     */
+    public Direction getDirection() {
+        return state.direction();
+    }
+    
     /**
      * Return the current floor.
      * 
@@ -88,137 +234,384 @@ public class Elevator extends Subject implements Runnable {
     /**
      * Return the passengers in the elevator.
      */
-    synchronized List<Person> getPassengers() {
-        // Return a copy to avoid synchronization issues.
-        return new ArrayList<>(passengers);
+    List<Person> getPassengers() {
+        return passengers.copy();
+    }
+    
+    @Override
+    ElevatorSnapshot snapshot() {
+        if (building != null)
+            return building.snapshot(index);
+        return ElevatorSnapshot.take(clock.currentTimeMillis(), 0,
+                Collections.singletonList(this), register, Collections.<Person>emptyList());
     }
     
     /**
      * Make the person enter the elevator as soon as it arrives at the floor.
+     * 
+     * The persons queue at the floor for their direction, and board in
+     * order of arrival when the doors open and there is room in the car:
+     * nobody can overtake the others.
+     */
+    public void enter(Person p, Floor f, Direction dir) {
+        lock.lock();
+        try {
+            FloorQueues q = queuesAt(f);
+            p.admitted = false;
+            q.waiting(dir).add(p);
+            if (open && f == position)
+                admit(f);
+            Condition boarding = q.boarding(dir);
+            boolean woken = false;
+            while (!terminated && !p.admitted) {
+                if (woken)
+                    metrics.spuriousWakeups++;
+                try {
+                    clock.await(boarding, lock);
+                } catch (InterruptedException ex) {
+                    System.err.println(ex);
+                }
+                woken = true;
+            }
+            if (!p.admitted) {
+                // Terminated: get in anyway, so that the trip can end.
+                q.waiting(dir).remove(p);
+                passengers.add(p);
+                p.setLocation(null);
+                notifyObservers();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Let the persons waiting at the floor get in, in order of arrival and
+     * up to the capacity of the car (the lock must be held and the doors
+     * must be open at the floor).
+     * 
+     * Those going in the direction of the car board first.  All of them are
+     * added to the car at once, with a single notification.
      */
-    synchronized public void enter(Person p, Floor f, Direction dir) {
-        while (!terminated && (!open || f != position || passengers.size() == capacity)) {
-            f.call(dir);
-            try {
-                wait();
-            } catch (InterruptedException ex) {
-                System.err.println(ex);
+    void admit(Floor f) {
+        FloorQueues q = queuesAt(f);
+        int room = capacity - load();
+        if (room <= 0)
+            return;
+        Direction first = (state.direction() == DOWN ? DOWN : UP);
+        Direction second = (first == UP ? DOWN : UP);
+        int up = 0;
+        int down = 0;
+        if (!q.waitingUp.isEmpty() || !q.waitingDown.isEmpty()) {
+            up = admit(q.waiting(first), batch, room);
+            down = admit(q.waiting(second), batch, room - up);
+            passengers.addAll(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                Person p = batch.get(i);
+                p.setLocation(null);
+                if (building != null)
+                    building.log(Recorder.BOARD, p.id, f.level, index);
             }
+            batch.clear();
         }
-        passengers.add(p);
-        p.setLocation(null);
+        // The persons of the population, after the Person objects.
+        int others = (population == null ? 0 : population.board(this, f.level, first, room - up - down));
+        if (up + down + others == 0)
+            return;
+        // Those who boarded while the doors were already open called the
+        // car: their calls are served, unless somebody is left behind.
+        if (!isWaiting(f, UP))
+            f.cancelCall(UP, index);
+        if (!isWaiting(f, DOWN))
+            f.cancelCall(DOWN, index);
+        movements += up + down + others;
         notifyObservers();
+        if (up > 0)
+            clock.signalAll(q.boarding(first));
+        if (down > 0)
+            clock.signalAll(q.boarding(second));
+    }
+    
+    /**
+     * Tell if somebody waits for the car at the floor to go in the given
+     * direction (the lock must be held).
+     */
+    boolean isWaiting(Floor f, Direction dir) {
+        FloorQueues q = queues[f.level];
+        if (q != null && !q.waiting(dir).isEmpty())
+            return true;
+        return population != null && population.isWaiting(this, f.level, dir);
+    }
+
+    /** Move to the batch the first persons of the queue. */
+    static int admit(Deque<Person> queue, List<Person> batch, int room) {
+        int n = 0;
+        while (n < room && !queue.isEmpty()) {
+            Person p = queue.poll();
+            p.admitted = true;
+            batch.add(p);
+            n++;
+        }
+        return n;
     }
 
     /**
      * Make the person exit the elevator when it arrives at the floor.
      */
-    synchronized public void exit(Person p, Floor f) {           
-        /*=================================================================
-         * 
-         * --- TO BE COMPLETED ---
-         * 
-         * Called by the person to get off from the elevator at floor f.
-         *
-         * The person waits until the elevator reaches the desired floor with
-         * the doors open.  If these conditions are not met then she pushes 
-         * the suitable button of the elevator and waits.
-         *
-         * When the conditions hold true
-         * - the person is removed from the list of passengers;
-         * - its location is updated;
-         * - the observers are notified.
-         *
-         * See also the similar "enter" method.
-         *
-         *=================================================================*/
-        while (!terminated && (!open || f != position || (f.stopRequested() == false))) {
-            f.requestStop();
-            try {
-                wait();
-            } catch (InterruptedException ex) {
-                System.err.println(ex);
+    public void exit(Person p, Floor f) {           
+        lock.lock();
+        try {
+            // The stop is requested again while waiting, since opening the
+            // doors at a floor cancels its request.
+            Condition alighting = queuesAt(f).alighting;
+            boolean woken = false;
+            while (!terminated && (!open || f != position)) {
+                if (woken)
+                    metrics.spuriousWakeups++;
+                f.requestStop(index);
+                try {
+                    clock.await(alighting, lock);
+                } catch (InterruptedException ex) {
+                    System.err.println(ex);
+                }
+                woken = true;
             }
+            passengers.remove(p);
+            movements++;
+            if (building != null)
+                building.log(Recorder.ALIGHT, p.id, f.level, index);
+            p.setLocation(f);
+            notifyObservers();
+            // Make room for those waiting at the floor.
+            if (open && f == position)
+                admit(f);
+        } finally {
+            lock.unlock();
         }
-        passengers.remove(p);
-        p.setLocation(f);
-        notifyObservers();
+    }
+    
+    /**
+     * Persons waiting for the car at the floor to go in the given direction,
+     * in order of arrival, or null if nobody has waited there yet.
+     */
+    Deque<Person> waitingAt(int level, Direction dir) {
+        FloorQueues q = queues[level];
+        return (q == null ? null : q.waiting(dir));
+    }
+
+    /**
+     * Set the direction of a car restored from a checkpoint (null for a car
+     * waiting for requests).
+     */
+    void restoreDirection(Direction d) {
+        state = (d == null ? WaitingState.INSTANCE : MovingState.of(d));
+    }
+
+    /**
+     * Waiting queues at the floor (the lock must be held).
+     */
+    FloorQueues queuesAt(Floor f) {
+        FloorQueues q = queues[f.level];
+        if (q == null) {
+            q = new FloorQueues(lock);
+            queues[f.level] = q;
+        }
+        return q;
     }
     
     /**
      * Return the number of calls or requests for floors in the given direction.
      */
     int countRequests(Direction direction) {
-        Floor f = position.neighbor(direction);
-        int count = 0;
-        while (f != null) {
-            if (f.isCalled(UP) || f.isCalled(DOWN) || f.stopRequested())
-                count++;
-            f = f.neighbor(direction);
-        }
-        return count;
+        return register.count(index, position.level, direction);
+    }
+    
+    /**
+     * Tell if a passenger of the car asked to stop at the floor.
+     */
+    boolean stopRequested(Floor f) {
+        return f.stopRequested(index);
     }
     
     /**
      * Tell if the elevator is supposed to stop at the floor, given that it is
      * moving in that direction.
+     * 
+     * A full car passes by the calls it cannot serve.
      */
     boolean mustStop(Floor floor, Direction direction) {
-        return (floor.isCalled(direction) || floor.stopRequested());
+        return ((floor.isCalled(direction, index) && !isFull()) || floor.stopRequested(index));
+    }
+    
+    /**
+     * Direction to take after serving a floor (current is the direction of
+     * travel, null when the car is idle), as chosen by the collective
+     * control.  The car cannot stay idle or go where it has nothing to do.
+     */
+    Direction nextDirection(Direction current) {
+        Direction d = control.chooseDirection(this, current);
+        if (d != null && countRequests(d) > 0)
+            return d;
+        if (current != null && countRequests(current) > 0)
+            return current;
+        return (countRequests(DOWN) > 0 ? DOWN : countRequests(UP) > 0 ? UP : null);
+    }
+    
+    /**
+     * Tell if there is no room left in the car.
+     */
+    boolean isFull() {
+        return load() >= capacity;
+    }
+    
+    /**
+     * Number of persons in the car.
+     */
+    int load() {
+        return passengers.size() + (population == null ? 0 : population.riding(index));
+    }
+    
+    /**
+     * Estimate how many floors the car has to travel before serving a call at
+     * the floor for the given direction.
+     * 
+     * A car moving away from the floor, or towards it in the opposite
+     * direction, is supposed to reach its farthest request before turning.
+     */
+    int estimateHops(Floor floor, Direction dir) {
+        Floor from = position;
+        Direction d = state.direction();
+        if (d == null || floor == from)
+            return from.distance(floor);
+        boolean ahead = (d == UP ? floor.isAbove(from) : floor.isBelow(from));
+        if (ahead && dir == d)
+            return from.distance(floor);
+        int last = register.farthest(index, from.level, d);
+        Floor turn = (last < 0 ? from : register.byLevel[last]);
+        return from.distance(turn) + turn.distance(floor);
     }
     
     /**
-     * Move at the given floor.
+     * Estimate the time (in milliseconds) needed to serve a call at the floor
+     * for the given direction.
+     * 
+     * Each pending request of the car is counted as a stop, and a full car
+     * needs at least a stop before it can take anybody else.
+     */
+    long estimateArrival(Floor floor, Direction dir) {
+        int stops = countRequests(UP) + countRequests(DOWN);
+        if (isFull())
+            stops++;
+        return kinematics.travelTime(estimateHops(floor, dir)) + stops * kinematics.stopTime();
+    }
+    
+    /**
+     * Nearest floor ahead in the direction where the car has to stop, or the
+     * farthest floor with a request when it has to turn (null if the car has
+     * nothing to do in that direction).
+     */
+    Floor nextStop(Direction direction) {
+        int level = register.nearest(index, position.level, direction, !isFull());
+        if (level < 0)
+            level = register.farthest(index, position.level, direction);
+        return (level < 0 ? null : register.byLevel[level]);
+    }
+    
+    /**
+     * Move to the given floor, in a single run.
+     * 
+     * While running the car follows the floors it passes, and when a new
+     * request ahead of it can still be served (the car has not yet started
+     * to brake for that floor) it stops there instead.
      */
-    void gotoFloor(Floor floor) {
-        synchronized(this) {
+    void gotoFloor(Floor floor, Direction d) {
+        Floor from = position;
+        int hops = from.distance(floor);
+        long start = clock.currentTimeMillis();
+        long[] passing = kinematics.passingTimes(hops);  // Shared: read only.
+        Floor f = from;
+        for (int k = 1; k < hops; k++) {
+            pauseUntil(start + passing[k - 1]);
+            f = f.neighbor(d);
+            passFloor(f);
+            // Replan if a closer stop has been requested in the meantime.
+            int next = register.nearest(index, f.level + (d == UP ? -1 : 1), d, !isFull());
+            if (next >= 0 && from.distance(register.byLevel[next]) < hops) {
+                int m = from.distance(register.byLevel[next]);
+                if (clock.currentTimeMillis() - start <= kinematics.brakingTime(m)) {
+                    hops = m;
+                    floor = register.byLevel[next];
+                }
+            }
+        }
+        pauseUntil(start + kinematics.travelTime(hops));
+        lock.lock();
+        try {
+            metrics.floorsTraveled += position.distance(floor);
+            metrics.passengerFloors += (long) load() * position.distance(floor);
             this.position = floor;
             notifyObservers();
-            notifyAll();
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * Follow the floor passed by the running car.
+     */
+    void passFloor(Floor f) {
+        lock.lock();
         try {
-            Thread.sleep(TRAVELING_TIME);
-        } catch (InterruptedException ex) {
-            System.err.println(ex);
+            metrics.floorsTraveled++;
+            metrics.passengerFloors += load();
+            position = f;
+        } finally {
+            lock.unlock();
+        }
+        if (!passingObservers.isEmpty()) {
+            long now = clock.currentTimeMillis();
+            for (PassingObserver o : passingObservers)
+                o.elevatorPassing(index, f.getName(), now);
         }
     }
     
     /**
-     * Open the doors.
+     * Open the doors, and keep them open while the persons get in and out.
      */
     void openDoors() {
-        /*=================================================================
-         * 
-         * --- TO BE COMPLETED ---
-         * 
-         * Called by the elevator thread when the doors need to be opened.
-         *
-         * After setting the "open" attribute, all the waiting threads, and all
-         * the observers are notified.
-         * 
-         * Moreover, the methods "cancelRequest" and "cancelCall" (for both the
-         * directions) of the class "Floor" must be called to reset the
-         * selections of the floors.
-         *
-         * At the end the elevator must wait a few seconds to simulate the time
-         * taken to close the doors.
-         *
-         * See also the similar "closeDoors" method.
-         *
-         *=================================================================*/
-        synchronized(this) {
+        boolean wasOpen;
+        lock.lock();
+        try {
+            wasOpen = open;
             open = true;
+            movements = 0;
             notifyObservers();
-            notifyAll();
-            position.cancelRequest();
-            position.cancelCall(Direction.UP);
-            position.cancelCall(Direction.DOWN);
+            clock.signalAll(queuesAt(position).alighting);
+            if (register.clearAll(index, position.level))
+                metrics.stops++;
+            if (population != null)
+                movements += population.alight(this, position.level);
+            admit(position);
+        } finally {
+            lock.unlock();
         }
-
+        pause((wasOpen ? 0 : kinematics.doorOpenTime) + kinematics.dwellTime);
+        long flow;
+        while ((flow = takeMovements() * (long) kinematics.boardingTime) > 0)
+            pause(flow);
+    }
+    
+    /**
+     * Number of persons who got in or out since the last call.
+     */
+    int takeMovements() {
+        lock.lock();
         try {
-            Thread.sleep(DOORS_TIME);
-        } catch (InterruptedException ex) {
-            System.err.println(ex);
+            int n = movements;
+            movements = 0;
+            return n;
+        } finally {
+            lock.unlock();
         }
     }
     
@@ -226,16 +619,59 @@ public class Elevator extends Subject implements Runnable {
      * Close the doors.
      */
     void closeDoors() {
-        synchronized(this) {
+        lock.lock();
+        try {
+            // Nobody can proceed with the doors closed: no one to wake up.
             open = false;
+            metrics.doorCycles++;
             notifyObservers();
-            notifyAll();
-        }
-        try {
-            Thread.sleep(DOORS_TIME);
-        } catch (InterruptedException ex) {
-            System.err.println(ex);
+            // Those left behind (the car was full) call it again.
+            if (isWaiting(position, UP))
+                position.call(UP, index);
+            if (isWaiting(position, DOWN))
+                position.call(DOWN, index);
+        } finally {
+            lock.unlock();
         }
+        pause(kinematics.doorCloseTime);
+    }
+}
+
+
+/**
+ * Conditions on which the persons at a floor wait for an elevator.
+ * 
+ * @author Claudio Cusano
+ */
+class FloorQueues
+{
+    final Condition boardingUp;
+    final Condition boardingDown;
+    final Condition alighting;
+    final Deque<Person> waitingUp = new ArrayDeque<>();
+    final Deque<Person> waitingDown = new ArrayDeque<>();
+    
+    FloorQueues(ReentrantLock lock) {
+        boardingUp = lock.newCondition();
+        boardingDown = lock.newCondition();
+        alighting = lock.newCondition();
+    }
+    
+    /// Condition for persons boarding in the given direction.
+    Condition boarding(Direction dir) {
+        return (dir == UP ? boardingUp : boardingDown);
+    }
+    
+    /// Persons waiting to board in the given direction, in order of arrival.
+    Deque<Person> waiting(Direction dir) {
+        return (dir == UP ? waitingUp : waitingDown);
+    }
+    
+    /// Wake up everybody at the floor.
+    void signalAll(SimClock clock) {
+        clock.signalAll(alighting);
+        clock.signalAll(boardingUp);
+        clock.signalAll(boardingDown);
     }
 }
 
@@ -252,6 +688,9 @@ interface ElevatorState
     
     /// Tell if the stop can be requested according to the current state.
     boolean canSetDestination(Elevator e, Floor floor);
+    
+    /// Direction of travel (null if not moving).
+    Direction direction();
 }
 
 
@@ -262,24 +701,18 @@ interface ElevatorState
  */
 class WaitingState implements ElevatorState
 {
+    /// The state has no data: all the cars share it.
+    static final WaitingState INSTANCE = new WaitingState();
+    
     @Override
     public void move(Elevator e)
     {
-        int neededUp = e.countRequests(UP);
-        int neededDown = e.countRequests(DOWN);
-                
-        if (neededUp > neededDown) {
-            e.closeDoors();
-            e.setState(new MovingState(UP));            
-        } else if (neededDown > 0) {
+        Direction d = e.nextDirection(null);
+        if (d != null) {
             e.closeDoors();
-            e.setState(new MovingState(DOWN));                        
+            e.setState(MovingState.of(d));
         } else {
-            try {
-                Thread.sleep(100);  // !!!
-            } catch (InterruptedException ex) {
-                System.err.println(ex);
-            }
+            e.waitForRequest();
         }
     }
     
@@ -288,6 +721,12 @@ class WaitingState implements ElevatorState
     {
         return true;
     }
+    
+    @Override
+    public Direction direction()
+    {
+        return null;
+    }
 }
 
 /**
@@ -297,25 +736,54 @@ class WaitingState implements ElevatorState
  */
 class MovingState implements ElevatorState
 {
-    Direction direction;
+    static final MovingState GOING_UP = new MovingState(UP);
+    static final MovingState GOING_DOWN = new MovingState(DOWN);
+    
+    final Direction direction;
     
     MovingState(Direction direction) {
         this.direction = direction;
     }
     
+    /// The state for the direction (shared by all the cars).
+    static MovingState of(Direction direction) {
+        return (direction == UP ? GOING_UP : GOING_DOWN);
+    }
+    
     @Override
     public void move(Elevator e) {
-        e.gotoFloor(e.getCurrentFloor().neighbor(direction));
-        boolean stop = e.mustStop(e.getCurrentFloor(), direction);
+        // The car runs without stopping to the next floor it has to serve
+        // (with the doors closed, even when restored from a checkpoint
+        // taken while they were open).
+        if (e.isOpen())
+            e.closeDoors();
+        Floor target = e.nextStop(direction);
+        boolean stop = false;
+        if (target != null) {
+            e.gotoFloor(target, direction);
+            stop = e.mustStop(e.getCurrentFloor(), direction);
+        }
         
         if (stop)
             e.openDoors();
 
         if (e.countRequests(direction) == 0) {
-            e.setState(new WaitingState());
+            e.setState(WaitingState.INSTANCE);
             e.openDoors();
-        } else if (stop)
-            e.closeDoors();
+            return;
+        }
+        Direction next = e.nextDirection(direction);
+        if (next == direction) {
+            if (stop)
+                e.closeDoors();
+        } else {
+            // The control turns the car back before the end of the run.
+            if (!e.isOpen() && e.getCurrentFloor().isCalled(next, e.getIndex()))
+                e.openDoors();
+            if (e.isOpen())
+                e.closeDoors();
+            e.setState(MovingState.of(next));
+        }
     }
     
     @Override
@@ -323,4 +791,9 @@ class MovingState implements ElevatorState
         return ((direction == UP && floor.isAbove(e.getCurrentFloor())) || 
                 (direction == DOWN && floor.isBelow(e.getCurrentFloor())));
     }
+    
+    @Override
+    public Direction direction() {
+        return direction;
+    }
 }
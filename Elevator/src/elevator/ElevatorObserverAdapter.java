@@ -0,0 +1,33 @@
+package elevator;
+
+/**
+ * Adapt an ElevatorObserver, which only wants to know that something
+ * changed, to the snapshot interface.
+ * 
+ * @author Claudio Cusano
+ */
+public class ElevatorObserverAdapter implements SnapshotObserver {
+
+    final ElevatorObserver observer;
+
+    /** Wrap the observer. */
+    public ElevatorObserverAdapter(ElevatorObserver observer) {
+        this.observer = observer;
+    }
+
+    @Override
+    public void elevatorChanged(ElevatorSnapshot snapshot) {
+        observer.elevatorMoved();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof ElevatorObserverAdapter
+                && ((ElevatorObserverAdapter) o).observer == observer);
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(observer);
+    }
+}
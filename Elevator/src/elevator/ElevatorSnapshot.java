@@ -0,0 +1,171 @@
+package elevator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable picture of the building taken when an elevator changes.
+ * 
+ * It is built once for each event and shared by all the observers, which
+ * can read it from any thread without querying the building again.
+ * 
+ * @author Claudio Cusano
+ */
+public final class ElevatorSnapshot {
+
+    final long time;
+    final int car;
+    final String[] carFloors;
+    final boolean[] carOpen;
+    final List<List<String>> passengers;
+    final List<String> floorNames;
+    final List<List<String>> personsAtFloor;
+    final Map<String, String> destinations;
+    final List<String> personNames;
+
+    ElevatorSnapshot(long time, int car, String[] carFloors, boolean[] carOpen,
+                     List<List<String>> passengers, List<String> floorNames,
+                     List<List<String>> personsAtFloor, Map<String, String> destinations,
+                     List<String> personNames) {
+        this.time = time;
+        this.car = car;
+        this.carFloors = carFloors;
+        this.carOpen = carOpen;
+        this.passengers = passengers;
+        this.floorNames = floorNames;
+        this.personsAtFloor = personsAtFloor;
+        this.destinations = destinations;
+        this.personNames = personNames;
+    }
+
+    /**
+     * Build a snapshot out of its parts, for instance when reading it back
+     * from a trace.  The lists are not copied: they must not be changed
+     * afterwards.
+     */
+    public static ElevatorSnapshot of(long time, int car, String[] carFloors, boolean[] carOpen,
+                                      List<List<String>> passengers, List<String> floorNames,
+                                      List<List<String>> personsAtFloor, Map<String, String> destinations,
+                                      List<String> personNames) {
+        if (carOpen.length != carFloors.length || passengers.size() != carFloors.length
+                || personsAtFloor.size() != floorNames.size())
+            throw new IllegalArgumentException("Inconsistent snapshot");
+        return new ElevatorSnapshot(time, car, carFloors.clone(), carOpen.clone(),
+                Collections.unmodifiableList(passengers), Collections.unmodifiableList(floorNames),
+                Collections.unmodifiableList(personsAtFloor), Collections.unmodifiableMap(destinations),
+                Collections.unmodifiableList(personNames));
+    }
+
+    /** Simulated time of the event, in milliseconds. */
+    public long getTime() {
+        return time;
+    }
+
+    /** Index of the elevator whose change produced the snapshot. */
+    public int getCar() {
+        return car;
+    }
+
+    /** Number of elevators. */
+    public int getElevatorCount() {
+        return carFloors.length;
+    }
+
+    /** Name of the floor where the given elevator is. */
+    public String getElevatorFloor(int car) {
+        return carFloors[car];
+    }
+
+    /** Tell if the given elevator is open. */
+    public boolean isElevatorOpen(int car) {
+        return carOpen[car];
+    }
+
+    /** Names of the passengers of the given elevator. */
+    public List<String> getPassengers(int car) {
+        return passengers.get(car);
+    }
+
+    /** Names of the floors, from bottom to top. */
+    public List<String> getFloorNames() {
+        return floorNames;
+    }
+
+    /** Names of the persons at the floor with the given level. */
+    public List<String> getPersonsAtFloor(int level) {
+        return personsAtFloor.get(level);
+    }
+
+    /** Names of all the persons, in the order they entered the building. */
+    public List<String> getPersonNames() {
+        return personNames;
+    }
+
+    /**
+     * Name of the destination of the person (the empty string if the person
+     * has no destination).
+     */
+    public String getDestination(String personName) {
+        String d = destinations.get(personName);
+        return (d == null ? "" : d);
+    }
+
+    /**
+     * Take the snapshot of the elevators, the floors (ordered by level) and
+     * the persons.
+     * 
+     * The persons are visited only once, whatever the number of floors, and
+     * the names of the floors are shared by all the snapshots.
+     */
+    static ElevatorSnapshot take(long time, int car, List<Elevator> cars, RequestRegister register,
+                                 List<Person> persons) {
+        Map<String, String> destinations = new HashMap<>();
+        String[] all = new String[persons.size()];
+        int nFloors = register.floors;
+        List<List<String>> atFloor = new ArrayList<>(nFloors);
+        List<List<String>> lists = new ArrayList<>(nFloors);
+        for (int i = 0; i < nFloors; i++)
+            lists.add(new ArrayList<String>());
+        for (int i = 0; i < all.length; i++) {
+            Person p = persons.get(i);
+            all[i] = p.getPersonName();
+            Floor loc = p.getLocation();
+            if (loc != null)
+                lists.get(loc.level).add(p.getPersonName());
+            Floor d = p.destination();
+            if (d != null)
+                destinations.put(p.getPersonName(), d.getName());
+        }
+        for (int i = 0; i < nFloors; i++)
+            atFloor.add(Collections.unmodifiableList(lists.get(i)));
+        String[] carFloors = new String[cars.size()];
+        boolean[] carOpen = new boolean[cars.size()];
+        List<List<String>> passengers = new ArrayList<>(cars.size());
+        for (int i = 0; i < carFloors.length; i++) {
+            Elevator e = cars.get(i);
+            carFloors[i] = e.getCurrentFloor().getName();
+            carOpen[i] = e.isOpen();
+            List<String> names = new ArrayList<>();
+            for (Person p : e.passengers.copy()) {
+                names.add(p.getPersonName());
+                Floor d = p.destination();
+                if (d != null)
+                    destinations.put(p.getPersonName(), d.getName());
+            }
+            passengers.add(Collections.unmodifiableList(names));
+        }
+        return new ElevatorSnapshot(time, car, carFloors, carOpen,
+                Collections.unmodifiableList(passengers), register.floorNames,
+                Collections.unmodifiableList(atFloor), Collections.unmodifiableMap(destinations),
+                names(all));
+    }
+
+    /** Make an unmodifiable list out of the names. */
+    static List<String> names(String[] names) {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+}
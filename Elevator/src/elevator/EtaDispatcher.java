@@ -0,0 +1,26 @@
+package elevator;
+
+import java.util.List;
+
+/**
+ * Assign the call to the car with the shortest estimated time of arrival,
+ * counting the stops it has to make on the way.
+ *
+ * @author Claudio Cusano
+ */
+public class EtaDispatcher implements Dispatcher {
+
+    @Override
+    public Elevator assign(List<Elevator> cars, Floor floor, Direction dir, Floor destination) {
+        Elevator best = null;
+        long bestTime = Long.MAX_VALUE;
+        for (Elevator car : cars) {
+            long time = car.estimateArrival(floor, dir);
+            if (time < bestTime) {
+                best = car;
+                bestTime = time;
+            }
+        }
+        return best;
+    }
+}
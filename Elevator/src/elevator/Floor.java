@@ -1,30 +1,47 @@
 package elevator;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Model a floor of the building, including the buttons for requesting the stop
  * and for calling the elevator.
- * 
+ *
+ * Floors are numbered from the bottom (level 0).  When the building has
+ * several elevators, calls and stop requests are kept separately for each
+ * car, in the request register shared by all the floors of the building.
+ *
  * @author Claudio Cusano
  */
 public class Floor {
    String name;
    Floor next;
    Floor prev;
+   int level;
+   RequestRegister register;
    
-   boolean calledForUP;
-   boolean calledForDOWN;
-   boolean stopReq;
-   
+   // Persons at the floor, in order of arrival: a list linked through the
+   // persons themselves, so that moving does not allocate (guarded by the
+   // monitor of the floor).
+   Person first;
+   Person last;
+   volatile int occupancy;
+
    /** Create a new floor with the given name. */
    public Floor(String name) {
        this.name = name;
    }
-   
+
    /** Name of the floor. */
    public String getName() {
        return name;
    }
-   
+
+   /** Position of the floor, counting from the bottom one (level 0). */
+   public int getLevel() {
+       return level;
+   }
+
    /** Next floor in the given direction, or null. */
    public Floor neighbor(Direction d) {
        if (d == Direction.UP)
@@ -32,66 +49,106 @@ public class Floor {
        else
            return prev;
    }
-   
-   /** Ask the elevator to move and stop at the floor. */
-   void requestStop() {
-       stopReq = true;
+
+   /** Ask the given elevator to move and stop at the floor. */
+   void requestStop(int car) {
+       register.set(car, RequestRegister.STOPS, level);
    }
-   
-   /** Cancel a previous request of stop. */
-   void cancelRequest() {          
-       stopReq = false;
+
+   /** Cancel a previous request of stop to the given elevator. */
+   void cancelRequest(int car) {
+       register.clear(car, RequestRegister.STOPS, level);
    }
-   
+
    /** Tell if the stop has been requested for this floor. */
    public boolean stopRequested() {
-       return stopReq;
+       return register.testAnyCar(RequestRegister.STOPS, level);
    }
-   
-   /** Call the elevator at the floor for a given direction. */
-   void call(Direction d) {
-       if (d == Direction.UP)
-           calledForUP = true;
-       else
-           calledForDOWN = true;
+
+   /** Tell if the stop has been requested to the given elevator. */
+   public boolean stopRequested(int car) {
+       return register.test(car, RequestRegister.STOPS, level);
    }
 
-   /** Cancel the call for the direction. */
-   void cancelCall(Direction d) {
-       if (d == Direction.UP)
-           calledForUP = false;
-       else
-           calledForDOWN = false;
+   /** Call the given elevator at the floor for a given direction. */
+   void call(Direction d, int car) {
+       register.set(car, RequestRegister.callKind(d), level);
+   }
+
+   /** Cancel the call of the given elevator for the direction. */
+   void cancelCall(Direction d, int car) {
+       register.clear(car, RequestRegister.callKind(d), level);
    }
-      
-   /** Tell if the elevator has been called for the direction. */
+
+   /** Tell if any elevator has been called for the direction. */
    public boolean isCalled(Direction d) {
-       if (d == Direction.UP)
-           return calledForUP;
+       return register.testAnyCar(RequestRegister.callKind(d), level);
+   }
+
+   /** Tell if the given elevator has been called for the direction. */
+   public boolean isCalled(Direction d, int car) {
+       return register.test(car, RequestRegister.callKind(d), level);
+   }
+
+   /** Number of persons at the floor. */
+   public int getOccupancy() {
+       return occupancy;
+   }
+
+   /** Names of the persons at the floor, in order of arrival at the floor. */
+   public synchronized List<String> getOccupantNames() {
+       List<String> ret = new ArrayList<>(occupancy);
+       for (Person p = first; p != null; p = p.nextAtFloor)
+           ret.add(p.getPersonName());
+       return ret;
+   }
+
+   /** Add a person to the occupants. */
+   synchronized void arrive(Person p) {
+       p.prevAtFloor = last;
+       p.nextAtFloor = null;
+       if (last == null)
+           first = p;
        else
-           return calledForDOWN;
+           last.nextAtFloor = p;
+       last = p;
+       occupancy++;
    }
-   
+
+   /** Remove a person from the occupants. */
+   synchronized void depart(Person p) {
+       if (p.prevAtFloor == null)
+           first = p.nextAtFloor;
+       else
+           p.prevAtFloor.nextAtFloor = p.nextAtFloor;
+       if (p.nextAtFloor == null)
+           last = p.prevAtFloor;
+       else
+           p.nextAtFloor.prevAtFloor = p.prevAtFloor;
+       p.prevAtFloor = null;
+       p.nextAtFloor = null;
+       occupancy--;
+   }
+
    /** Connect to another floor. */
    void linkUp(Floor f) {
        this.next = f;
        f.prev = this;
+       f.level = level + 1;
    }
-   
+
    /** Verify if the floor is above the given one. */
    public boolean isAbove(Floor f) {
-       if (f == this)
-           return false;
-       while (f != null) {
-           f = f.next;
-           if (f == this)
-               return true;
-       }
-       return false;
+       return level > f.level;
    }
 
    /** Verify if the floor is below the given one. */
    public boolean isBelow(Floor f) {
        return f.isAbove(this);
-   }   
+   }
+
+   /** Number of floors between this one and the given one. */
+   public int distance(Floor f) {
+       return Math.abs(level - f.level);
+   }
 }
@@ -0,0 +1,134 @@
+package elevator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non negative values with a relative precision of about 1%.
+ *
+ * As in the HDR histograms, values are counted in buckets whose width grows
+ * with the magnitude: values below 128 have their own bucket, larger values
+ * share a bucket with the others having the same seven most significant
+ * bits.  Recording a value does not allocate and does not lock, so the
+ * histogram can stay on during large runs.
+ *
+ * @author Claudio Cusano
+ */
+public class Histogram {
+
+    static final int SUB_BITS = 7;
+    static final int HALF = 1 << (SUB_BITS - 1);
+    static final int BUCKETS = (64 - SUB_BITS + 1) * HALF + HALF;
+
+    final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong sum = new AtomicLong();
+    final AtomicLong max = new AtomicLong();
+
+    /** Bucket of the value. */
+    static int index(long v) {
+        if (v < 2 * HALF)
+            return (int) v;
+        int shift = (63 - Long.numberOfLeadingZeros(v)) - (SUB_BITS - 1);
+        return shift * HALF + (int) (v >>> shift);
+    }
+
+    /** Largest value counted in the bucket. */
+    static long highestValue(int index) {
+        if (index < 2 * HALF)
+            return index;
+        int shift = index / HALF - 1;
+        long m = index - shift * HALF;
+        return ((m + 1) << shift) - 1;
+    }
+
+    /** Count a value (negative values are counted as zero). */
+    public void record(long v) {
+        if (v < 0)
+            v = 0;
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long m;
+        do {
+            m = max.get();
+        } while (v > m && !max.compareAndSet(m, v));
+    }
+
+    /** Number of values recorded. */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Largest value recorded (0 if none). */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Average of the values recorded (0 if none). */
+    public double getMean() {
+        long n = count.get();
+        return (n == 0 ? 0 : sum.get() / (double) n);
+    }
+
+    /**
+     * Value below which falls the given fraction (between 0 and 1) of the
+     * values recorded.
+     */
+    public long getPercentile(double fraction) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    /** Add the values recorded by another histogram. */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0)
+                counts.addAndGet(i, c);
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        long m;
+        long v = other.max.get();
+        do {
+            m = max.get();
+        } while (v > m && !max.compareAndSet(m, v));
+    }
+
+    /** Copy of the values recorded so far. */
+    public Histogram copy() {
+        Histogram h = new Histogram();
+        h.add(this);
+        return h;
+    }
+
+    /**
+     * Values recorded after the given earlier copy of this histogram (the
+     * largest one is known up to the precision of the buckets).
+     */
+    public Histogram since(Histogram earlier) {
+        Histogram h = new Histogram();
+        int top = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i) - earlier.counts.get(i);
+            if (c > 0) {
+                h.counts.set(i, c);
+                top = i;
+            }
+        }
+        h.count.set(count.get() - earlier.count.get());
+        h.sum.set(sum.get() - earlier.sum.get());
+        h.max.set(top < 0 ? 0 : Math.min(highestValue(top), max.get()));
+        return h;
+    }
+}
@@ -0,0 +1,248 @@
+package elevator;
+
+import java.util.Arrays;
+
+/**
+ * Timing of an elevator: motion of the car and cycle of the doors.
+ *
+ * The car moves with a jerk limited profile: the acceleration grows at the
+ * given jerk up to its maximum, the speed up to its maximum, and the car
+ * brakes symmetrically.  A run across several floors is a single trip, so
+ * that the car accelerates and brakes only once.  Runs too short to reach
+ * the maximum speed (or acceleration) are handled as well.
+ *
+ * At each stop the doors open, stay open for the dwell time, and remain
+ * open for a further time for each person getting in or out before they
+ * close.  All the times are in milliseconds, distances in meters.
+ *
+ * @author Claudio Cusano
+ */
+public final class Kinematics {
+
+    /** Time to open or close the doors, by default. */
+    public static final int DOORS_TIME = 1000;
+    /** Time to move between adjacent floors, by default. */
+    public static final int TRAVELING_TIME = 1500;
+    /** The default model: fixed times, as if the car had no inertia. */
+    public static final Kinematics DEFAULT = constant(DOORS_TIME, TRAVELING_TIME);
+
+    final double floorHeight;
+    final double maxSpeed;
+    final double acceleration;
+    final double jerk;
+    final int doorOpenTime;
+    final int dwellTime;
+    final int doorCloseTime;
+    final int boardingTime;
+    
+    // Passing times already computed, by length of the run.
+    long[][] passing = new long[0][];
+
+    /**
+     * Create the model.
+     *
+     * Speed, acceleration and jerk are in m/s, m/s^2 and m/s^3 (an infinite
+     * value means no limit); the times of the doors and the boarding time of
+     * each person are in milliseconds.
+     */
+    public Kinematics(double floorHeight, double maxSpeed, double acceleration, double jerk,
+                      int doorOpenTime, int dwellTime, int doorCloseTime, int boardingTime) {
+        if (!(floorHeight > 0 && maxSpeed > 0 && acceleration > 0 && jerk > 0))
+            throw new IllegalArgumentException("Height, speed, acceleration and jerk must be positive");
+        if (doorOpenTime < 0 || dwellTime < 0 || doorCloseTime < 0 || boardingTime < 0)
+            throw new IllegalArgumentException("Negative time");
+        this.floorHeight = floorHeight;
+        this.maxSpeed = maxSpeed;
+        this.acceleration = acceleration;
+        this.jerk = jerk;
+        this.doorOpenTime = doorOpenTime;
+        this.dwellTime = dwellTime;
+        this.doorCloseTime = doorCloseTime;
+        this.boardingTime = boardingTime;
+    }
+
+    /**
+     * Fixed times for the doors and for each floor traveled, whatever the
+     * length of the run.
+     */
+    public static Kinematics constant(int doorsTime, int travelingTime) {
+        double speed = (travelingTime == 0 ? Double.POSITIVE_INFINITY : 1000.0 / travelingTime);
+        return new Kinematics(1, speed, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                doorsTime, 0, doorsTime, 0);
+    }
+
+    /**
+     * A typical traction elevator of an office building: 3.5 m floors,
+     * 2.5 m/s, 1 m/s^2, 1.5 m/s^3, doors opening in 2 s and closing in 3 s,
+     * 2 s of dwell and 1 s for each person getting in or out.
+     */
+    public static Kinematics typical() {
+        return new Kinematics(3.5, 2.5, 1.0, 1.5, 2000, 2000, 3000, 1000);
+    }
+
+    /** Time to reach the speed from rest (seconds). */
+    double accelerationTime(double v) {
+        if (Double.isInfinite(jerk))
+            return v / acceleration;
+        double rampTime = acceleration / jerk;  // To reach the full acceleration.
+        if (v >= acceleration * rampTime)
+            return v / acceleration + rampTime;
+        return 2 * Math.sqrt(v / jerk);
+    }
+
+    /** Distance to reach the speed from rest (meters). */
+    double accelerationDistance(double v) {
+        // The profile is symmetric: the average speed is half the final one.
+        return v * accelerationTime(v) / 2;
+    }
+
+    /** Highest speed reached in a run of the given length (meters). */
+    double peakSpeed(double d) {
+        if (Double.isInfinite(maxSpeed) || 2 * accelerationDistance(maxSpeed) <= d)
+            return maxSpeed;
+        // The car brakes before reaching the maximum speed: find the peak
+        // speed by bisection.
+        double lo = 0;
+        double hi = maxSpeed;
+        for (int i = 0; i < 60; i++) {
+            double v = (lo + hi) / 2;
+            if (2 * accelerationDistance(v) < d)
+                lo = v;
+            else
+                hi = v;
+        }
+        return lo;
+    }
+
+    /** Duration of a run of the given length, in seconds. */
+    double runTime(double d) {
+        double v = peakSpeed(d);
+        if (Double.isInfinite(v))
+            return 0;
+        return 2 * accelerationTime(v) + (d - 2 * accelerationDistance(v)) / v;
+    }
+
+    /**
+     * Distance covered after the given time (seconds) while accelerating
+     * from rest to the speed v.
+     */
+    double accelerationDistance(double t, double v) {
+        if (t <= 0)
+            return 0;
+        if (Double.isInfinite(jerk))
+            return acceleration * t * t / 2;
+        double tj = Math.min(acceleration / jerk, Math.sqrt(v / jerk));  // Ramp of the acceleration.
+        double a = jerk * tj;
+        double tc = v / a - tj;  // At constant acceleration.
+        if (t <= tj)
+            return jerk * t * t * t / 6;
+        double s = jerk * tj * tj * tj / 6;
+        double u = jerk * tj * tj / 2;
+        double tau = Math.min(t - tj, tc);
+        s += u * tau + a * tau * tau / 2;
+        u += a * tau;
+        tau = Math.min(t - tj - tc, tj);
+        if (tau > 0)
+            s += u * tau + a * tau * tau / 2 - jerk * tau * tau * tau / 6;
+        return s;
+    }
+
+    /** Distance covered after the given time (seconds) of a run of length d. */
+    double position(double t, double d) {
+        double v = peakSpeed(d);
+        if (Double.isInfinite(v))
+            return d;
+        double ta = accelerationTime(v);
+        double total = runTime(d);
+        if (t <= ta)
+            return accelerationDistance(t, v);
+        if (t < total - ta)
+            return accelerationDistance(ta, v) + v * (t - ta);
+        return d - accelerationDistance(total - t, v);
+    }
+
+    /**
+     * Time to travel the given number of floors, starting and ending at
+     * rest.
+     */
+    public long travelTime(int floors) {
+        if (floors <= 0)
+            return 0;
+        return Math.round(runTime(floors * floorHeight) * 1000);
+    }
+
+    /**
+     * Times, from the start of a run of the given number of floors, when
+     * the car passes the intermediate floors (the first element is for the
+     * floor next to the departure one).
+     * 
+     * The times of each length are computed once and then shared: the
+     * array must not be changed.
+     */
+    synchronized long[] passingTimes(int floors) {
+        if (floors >= passing.length)
+            passing = Arrays.copyOf(passing, floors + 1);
+        if (passing[floors] == null)
+            passing[floors] = computePassingTimes(floors);
+        return passing[floors];
+    }
+    
+    /** Compute the passing times of a run. */
+    long[] computePassingTimes(int floors) {
+        long[] times = new long[Math.max(floors - 1, 0)];
+        double d = floors * floorHeight;
+        double total = runTime(d);
+        for (int k = 1; k < floors; k++) {
+            double lo = 0;
+            double hi = total;
+            for (int i = 0; i < 50; i++) {
+                double t = (lo + hi) / 2;
+                if (position(t, d) < k * floorHeight)
+                    lo = t;
+                else
+                    hi = t;
+            }
+            times[k - 1] = Math.round(hi * 1000);
+        }
+        return times;
+    }
+
+    /**
+     * Time from the start when a run of the given number of floors begins
+     * to brake: up to then the car can still decide to stop there.
+     */
+    long brakingTime(int floors) {
+        if (floors <= 0)
+            return 0;
+        double d = floors * floorHeight;
+        double v = peakSpeed(d);
+        double brake = (Double.isInfinite(v) ? 0 : accelerationTime(v));
+        return Math.round((runTime(d) - brake) * 1000);
+    }
+
+    /**
+     * Time lost in a stop with respect to passing the floor at full speed,
+     * doors included (used to estimate the service times).
+     */
+    public long stopTime() {
+        double lost = (Double.isInfinite(maxSpeed) ? 0 : accelerationTime(maxSpeed));
+        return Math.round(lost * 1000) + doorOpenTime + dwellTime + doorCloseTime;
+    }
+
+    public int getDoorOpenTime() {
+        return doorOpenTime;
+    }
+
+    public int getDwellTime() {
+        return dwellTime;
+    }
+
+    public int getDoorCloseTime() {
+        return doorCloseTime;
+    }
+
+    /** Additional time the doors stay open for each person getting in or out. */
+    public int getBoardingTime() {
+        return boardingTime;
+    }
+}
@@ -0,0 +1,96 @@
+package elevator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Performance of the service: how long the persons wait and travel, and how
+ * much the elevators work.
+ *
+ * For each trip three times are measured: the wait (from the call to the
+ * boarding), the ride (from the boarding to the exit) and the whole journey.
+ * All the times are in milliseconds of simulated time.
+ *
+ * @author Claudio Cusano
+ */
+public class Metrics {
+
+    final Histogram waitTime = new Histogram();
+    final Histogram rideTime = new Histogram();
+    final Histogram journeyTime = new Histogram();
+    final CarMetrics[] cars;
+
+    Metrics(CarMetrics[] cars) {
+        this.cars = cars;
+    }
+
+    /**
+     * Metrics of several buildings together: the times of all the trips,
+     * and the cars of all the buildings, in order.
+     */
+    static Metrics combine(List<Metrics> parts) {
+        List<CarMetrics> cars = new ArrayList<>();
+        for (Metrics m : parts)
+            cars.addAll(Arrays.asList(m.cars));
+        Metrics ret = new Metrics(cars.toArray(new CarMetrics[cars.size()]));
+        for (Metrics m : parts) {
+            ret.waitTime.add(m.waitTime);
+            ret.rideTime.add(m.rideTime);
+            ret.journeyTime.add(m.journeyTime);
+        }
+        return ret;
+    }
+
+    /** Record a trip given the times of the call, boarding and exit. */
+    void recordTrip(long call, long board, long exit) {
+        waitTime.record(board - call);
+        rideTime.record(exit - board);
+        journeyTime.record(exit - call);
+    }
+
+    /** Time from the call to the boarding. */
+    public Histogram getWaitTime() {
+        return waitTime;
+    }
+
+    /** Time spent in the elevator. */
+    public Histogram getRideTime() {
+        return rideTime;
+    }
+
+    /** Time from the call to the arrival. */
+    public Histogram getJourneyTime() {
+        return journeyTime;
+    }
+
+    /** Counters of the given elevator. */
+    public CarMetrics getCar(int car) {
+        return cars[car];
+    }
+
+    /** Print a summary. */
+    public void report(PrintStream out) {
+        out.println(String.format(Locale.ROOT, "%-8s %8s %8s %8s %8s %8s %10s",
+                "(ms)", "trips", "p50", "p95", "p99", "max", "mean"));
+        reportTimes(out, "wait", waitTime);
+        reportTimes(out, "ride", rideTime);
+        reportTimes(out, "journey", journeyTime);
+        out.println(String.format(Locale.ROOT, "%-8s %8s %8s %8s %8s",
+                "car", "floors", "stops", "doors", "load"));
+        for (int i = 0; i < cars.length; i++) {
+            CarMetrics c = cars[i];
+            out.println(String.format(Locale.ROOT, "%-8d %8d %8d %8d %7.1f%%",
+                    i + 1, c.getFloorsTraveled(), c.getStops(), c.getDoorCycles(),
+                    100 * c.getLoadFactor()));
+        }
+    }
+
+    static void reportTimes(PrintStream out, String name, Histogram h) {
+        out.println(String.format(Locale.ROOT, "%-8s %8d %8d %8d %8d %8d %10.1f",
+                name, h.getCount(), h.getPercentile(0.5), h.getPercentile(0.95),
+                h.getPercentile(0.99), h.getMax(), h.getMean()));
+    }
+}
@@ -0,0 +1,84 @@
+package elevator;
+
+import static elevator.Direction.DOWN;
+import static elevator.Direction.UP;
+
+/**
+ * Choose the direction that minimizes the cost of the pending requests,
+ * even if this means turning back before the end of the run (but not with
+ * passengers to take ahead).
+ *
+ * For each direction the car is supposed to serve the requests ahead, then
+ * to turn and serve the others, and each request gets an estimated
+ * completion time.  The cost of a hall call is the square of its total
+ * wait (the age of the call plus the time the car needs to get there), so
+ * that old calls weigh more and the long waits are cut; the cost of a stop
+ * is the square of the time to reach it, times STOP_WEIGHT.  The car takes
+ * everybody waiting where it stops, whatever their direction, so that it
+ * often carries passengers away from their floors: a stop stands for
+ * several of them, and the room they leave is what the calls wait for.
+ *
+ * @author Claudio Cusano
+ */
+public class MinimalCostControl implements CollectiveControl {
+
+    static final double STOP_WEIGHT = 5;
+
+    @Override
+    public Direction chooseDirection(Elevator car, Direction current) {
+        if (car.countRequests(UP) == 0 && car.countRequests(DOWN) == 0)
+            return null;
+        // Never leave behind the destinations of the passengers.
+        if (current != null && car.register.countStops(car.index, car.position.level, current) > 0)
+            return current;
+        long now = car.clock.currentTimeMillis();
+        double up = cost(car, UP, now);
+        double down = cost(car, DOWN, now);
+        if (current != null) {
+            double ahead = (current == UP ? up : down);
+            double back = (current == UP ? down : up);
+            return (back < ahead ? (current == UP ? DOWN : UP) : current);
+        }
+        if (up == down)
+            return DestinationControl.nearest(car);
+        return (up < down ? UP : DOWN);
+    }
+
+    /** Cost of serving all the requests leaving in the given direction. */
+    static double cost(Elevator car, Direction d, long now) {
+        RequestRegister r = car.register;
+        Kinematics k = car.kinematics;
+        int from = car.position.level;
+        int step = (d == UP ? 1 : -1);
+        long t = 0;
+        int at = from;
+        double cost = 0;
+        // The sweep ahead, then the way back past the starting floor.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int level = from + step; level >= 0 && level < r.floors; level += step) {
+                if (!r.any(car.index, level))
+                    continue;
+                t += k.travelTime(Math.abs(level - at)) + k.stopTime();
+                at = level;
+                cost += cost(r, car.index, level, t, now);
+            }
+            step = -step;
+        }
+        return cost;
+    }
+
+    /** Cost of the requests at a level, served after the given time. */
+    static double cost(RequestRegister r, int car, int level, long t, long now) {
+        double cost = 0;
+        for (int kind = 0; kind < RequestRegister.KINDS; kind++) {
+            if (!r.test(car, kind, level))
+                continue;
+            double wait = t;
+            if (kind != RequestRegister.STOPS)
+                wait += Math.max(0, now - r.callTime(car, kind, level));
+            wait /= 1000;
+            cost += (kind == RequestRegister.STOPS ? STOP_WEIGHT : 1) * wait * wait;
+        }
+        return cost;
+    }
+}
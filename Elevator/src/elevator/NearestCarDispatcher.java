@@ -0,0 +1,26 @@
+package elevator;
+
+import java.util.List;
+
+/**
+ * Assign the call to the car that has to travel the fewest floors to reach
+ * it, taking into account its current direction.
+ *
+ * @author Claudio Cusano
+ */
+public class NearestCarDispatcher implements Dispatcher {
+
+    @Override
+    public Elevator assign(List<Elevator> cars, Floor floor, Direction dir, Floor destination) {
+        Elevator best = null;
+        int bestHops = Integer.MAX_VALUE;
+        for (Elevator car : cars) {
+            int hops = car.estimateHops(floor, dir);
+            if (hops < bestHops) {
+                best = car;
+                bestHops = hops;
+            }
+        }
+        return best;
+    }
+}
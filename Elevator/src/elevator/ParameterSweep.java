@@ -0,0 +1,281 @@
+package elevator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Monte Carlo evaluation of a set of scenarios.
+ *
+ * Each scenario (size of the building, number and capacity of the cars,
+ * timing, population) is simulated several times on the virtual clock, with
+ * different seeds, and the means of the replications are summarized with
+ * their 95% confidence intervals.  The replications are independent and
+ * run in parallel on a ForkJoinPool: a simulation on the virtual clock keeps
+ * a single thread busy at any time, so a pool as large as the number of
+ * processors keeps all of them at work.
+ *
+ * @author Claudio Cusano
+ */
+public class ParameterSweep {
+
+    /**
+     * A configuration of the building to evaluate.
+     */
+    public static class Scenario {
+        final int floors;
+        final int cars;
+        final int capacity;
+        final int doorsTime;
+        final int travelingTime;
+        final int persons;
+
+        /**
+         * Create the scenario.  The times are in milliseconds; the persons
+         * move at random, unless the sweep has a traffic pattern.
+         */
+        public Scenario(int floors, int cars, int capacity, int doorsTime, int travelingTime, int persons) {
+            this.floors = floors;
+            this.cars = cars;
+            this.capacity = capacity;
+            this.doorsTime = doorsTime;
+            this.travelingTime = travelingTime;
+            this.persons = persons;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "floors=%d cars=%d capacity=%d doors=%d travel=%d persons=%d",
+                    floors, cars, capacity, doorsTime, travelingTime, persons);
+        }
+    }
+
+    /**
+     * Mean of a quantity over the replications, with the half width of its
+     * 95% confidence interval.
+     */
+    public static class Estimate {
+        final double mean;
+        final double halfWidth;
+
+        Estimate(double[] values) {
+            int n = values.length;
+            double m = 0;
+            for (double v : values)
+                m += v;
+            m /= n;
+            double var = 0;
+            for (double v : values)
+                var += (v - m) * (v - m);
+            mean = m;
+            halfWidth = (n > 1 ? studentT(n - 1) * Math.sqrt(var / (n - 1) / n) : Double.NaN);
+        }
+
+        /** Mean over the replications. */
+        public double getMean() {
+            return mean;
+        }
+
+        /** Half width of the 95% confidence interval. */
+        public double getHalfWidth() {
+            return halfWidth;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.1f +- %.1f", mean, halfWidth);
+        }
+    }
+
+    /**
+     * Summary of the replications of a scenario.
+     */
+    public static class Result {
+        final Scenario scenario;
+        final Estimate trips;
+        final Estimate meanWait;
+        final Estimate p95Wait;
+        final Estimate meanJourney;
+        final Estimate p95Journey;
+
+        Result(Scenario scenario, double[][] samples) {
+            this.scenario = scenario;
+            trips = new Estimate(samples[0]);
+            meanWait = new Estimate(samples[1]);
+            p95Wait = new Estimate(samples[2]);
+            meanJourney = new Estimate(samples[3]);
+            p95Journey = new Estimate(samples[4]);
+        }
+
+        public Scenario getScenario() {
+            return scenario;
+        }
+
+        /** Trips completed in a replication. */
+        public Estimate getTrips() {
+            return trips;
+        }
+
+        /** Average wait (milliseconds). */
+        public Estimate getMeanWait() {
+            return meanWait;
+        }
+
+        /** 95th percentile of the wait (milliseconds). */
+        public Estimate getP95Wait() {
+            return p95Wait;
+        }
+
+        /** Average journey (milliseconds). */
+        public Estimate getMeanJourney() {
+            return meanJourney;
+        }
+
+        /** 95th percentile of the journey (milliseconds). */
+        public Estimate getP95Journey() {
+            return p95Journey;
+        }
+    }
+
+    static final int SAMPLES = 5;
+
+    final int replications;
+    final long duration;
+    final long seed;
+    String traffic;   // Name of the traffic pattern (null for random moves).
+    double rate;      // Arrivals per minute of the traffic.
+    ForkJoinPool pool;
+
+    /**
+     * Create a sweep running the given number of replications of each
+     * scenario, each one for the given simulated time (milliseconds).
+     */
+    public ParameterSweep(int replications, long duration, long seed) {
+        if (replications < 1)
+            throw new IllegalArgumentException("At least one replication is needed");
+        this.replications = replications;
+        this.duration = duration;
+        this.seed = seed;
+    }
+
+    /**
+     * Drive the buildings with a traffic pattern ("up", "down", "lunch" or
+     * "inter") instead of letting the persons move at random.
+     */
+    public void setTraffic(String pattern, double perMinute) {
+        if (pattern != null && pattern(pattern, 2, perMinute) == null)
+            throw new IllegalArgumentException("Unknown traffic pattern " + pattern);
+        traffic = pattern;
+        rate = perMinute;
+    }
+
+    /**
+     * Run the replications on the given pool (by default, on a pool with a
+     * thread for each processor).
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    static TrafficPattern pattern(String name, int floors, double perMinute) {
+        switch (name) {
+            case "up":
+                return TrafficPattern.upPeak(floors, perMinute);
+            case "down":
+                return TrafficPattern.downPeak(floors, perMinute);
+            case "lunch":
+                return TrafficPattern.lunch(floors, perMinute);
+            case "inter":
+                return TrafficPattern.interFloor(floors, perMinute);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Evaluate the scenarios; the results are in the same order.
+     */
+    public List<Result> run(List<Scenario> scenarios) throws InterruptedException {
+        ForkJoinPool p = (pool == null ? new ForkJoinPool() : pool);
+        try {
+            List<Callable<double[]>> tasks = new ArrayList<>();
+            for (int s = 0; s < scenarios.size(); s++)
+                for (int r = 0; r < replications; r++)
+                    tasks.add(replication(scenarios.get(s), mix(seed, s, r)));
+            List<Future<double[]>> futures = p.invokeAll(tasks);
+            List<Result> results = new ArrayList<>();
+            int k = 0;
+            for (Scenario scenario : scenarios) {
+                double[][] samples = new double[SAMPLES][replications];
+                for (int r = 0; r < replications; r++) {
+                    double[] v = futures.get(k++).get();
+                    for (int i = 0; i < SAMPLES; i++)
+                        samples[i][r] = v[i];
+                }
+                results.add(new Result(scenario, samples));
+            }
+            return results;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Replication failed", ex.getCause());
+        } finally {
+            if (p != pool)
+                p.shutdown();
+        }
+    }
+
+    /** A replication of the scenario. */
+    Callable<double[]> replication(final Scenario s, final long replicationSeed) {
+        return new Callable<double[]>() {
+            @Override
+            public double[] call() throws InterruptedException {
+                String[] names = new String[s.floors];
+                for (int i = 0; i < names.length; i++)
+                    names[i] = "F" + i;
+                Building b = new Building(names, s.cars, s.capacity, new VirtualClock());
+                b.setTiming(s.doorsTime, s.travelingTime);
+                b.setSeed(replicationSeed);
+                if (traffic != null)
+                    b.setTraffic(pattern(traffic, s.floors, rate));
+                b.startSimulation();
+                try {
+                    for (int i = 0; i < s.persons; i++)
+                        b.addNewPerson();
+                    b.getClock().sleep(duration);
+                } finally {
+                    b.stopSimulation();
+                }
+                Metrics m = b.getMetrics();
+                return new double[] {
+                    b.getCompletedTrips(),
+                    m.getWaitTime().getMean(), m.getWaitTime().getPercentile(0.95),
+                    m.getJourneyTime().getMean(), m.getJourneyTime().getPercentile(0.95)
+                };
+            }
+        };
+    }
+
+    /** Seed of a replication, well spread even for consecutive inputs. */
+    static long mix(long seed, int scenario, int replication) {
+        long z = seed + 0x9e3779b97f4a7c15L * (((long) scenario << 32) + replication + 1);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    static final double[] T975 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+
+    /** Quantile 0.975 of the Student's t distribution. */
+    static double studentT(int degrees) {
+        if (degrees <= T975.length)
+            return T975[degrees - 1];
+        return 1.96 + 2.4 / degrees;  // Close to the exact values above 30.
+    }
+}
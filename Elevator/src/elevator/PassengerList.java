@@ -0,0 +1,106 @@
+package elevator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The passengers of a car, in order of boarding.
+ *
+ * The list is changed only under the lock of the car, and reuses its array
+ * (sized for the capacity of the car): boarding and alighting allocate
+ * nothing.  Observers read it without the lock by copying it: the version
+ * is odd while a change is in progress, and a copy is good when it sees
+ * the same even version before and after (as with a sequence lock).
+ *
+ * @author Claudio Cusano
+ */
+final class PassengerList {
+
+    volatile AtomicReferenceArray<Person> items;
+    volatile int size;
+    volatile int version;
+
+    PassengerList(int capacity) {
+        items = new AtomicReferenceArray<>(Math.max(1, capacity));
+    }
+
+    /** Number of passengers. */
+    int size() {
+        return size;
+    }
+
+    /** Tell if the car is empty. */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** The passenger in the given position (the lock must be held). */
+    Person get(int i) {
+        return items.get(i);
+    }
+
+    /** Add a passenger (the lock must be held). */
+    void add(Person p) {
+        version++;
+        append(p);
+        version++;
+    }
+
+    /** Add the passengers boarding together (the lock must be held). */
+    void addAll(List<Person> batch) {
+        version++;
+        for (int i = 0; i < batch.size(); i++)
+            append(batch.get(i));
+        version++;
+    }
+
+    private void append(Person p) {
+        AtomicReferenceArray<Person> a = items;
+        int n = size;
+        if (n == a.length()) {
+            // More than the capacity (persons boarding at the termination).
+            AtomicReferenceArray<Person> b = new AtomicReferenceArray<>(2 * n);
+            for (int i = 0; i < n; i++)
+                b.set(i, a.get(i));
+            items = a = b;
+        }
+        a.set(n, p);
+        size = n + 1;
+    }
+
+    /** Remove a passenger (the lock must be held). */
+    boolean remove(Person p) {
+        AtomicReferenceArray<Person> a = items;
+        int n = size;
+        int k = 0;
+        while (k < n && a.get(k) != p)
+            k++;
+        if (k == n)
+            return false;
+        version++;
+        for (int i = k + 1; i < n; i++)
+            a.set(i - 1, a.get(i));
+        a.set(n - 1, null);
+        size = n - 1;
+        version++;
+        return true;
+    }
+
+    /** Copy of the passengers (the lock is not needed). */
+    List<Person> copy() {
+        while (true) {
+            int v = version;
+            if ((v & 1) == 0) {
+                AtomicReferenceArray<Person> a = items;
+                int n = Math.min(size, a.length());
+                List<Person> ret = new ArrayList<>(n);
+                for (int i = 0; i < n; i++)
+                    ret.add(a.get(i));
+                if (version == v)
+                    return ret;
+            }
+            Thread.yield();
+        }
+    }
+}
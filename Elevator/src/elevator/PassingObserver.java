@@ -0,0 +1,20 @@
+package elevator;
+
+/**
+ * Observer of the floors passed by the cars without stopping.
+ *
+ * A car running to its next stop notifies the other observers only when it
+ * arrives.  Observers that need to follow the car floor by floor (for
+ * instance a position indicator) register as passing observers.  They are
+ * called directly by the thread of the car, without snapshots, and must
+ * return quickly.
+ *
+ * @author Claudio Cusano
+ */
+public interface PassingObserver {
+
+    /**
+     * The car is passing the floor with the given name at the given time.
+     */
+    void elevatorPassing(int car, String floorName, long time);
+}
@@ -11,25 +11,46 @@ import java.util.Random;
  * 
  * @author Claudio Cusano
  */
-public class Person extends Thread {
+public class Person implements Runnable {
     
     static final int WAITING_TIME = 5000;  // In milliseconds.
     
     String name;
-    Floor location;
-    Floor destination = null;
-    Elevator elevator;
-    boolean terminated;
-    Random random = new Random();
+    int id;  // Position in the building.
+    volatile Floor location;
+    volatile Floor destination = null;
+    Building building;
+    Elevator elevator = null;  // The car assigned to the current trip.
+    long callTime;
+    long boardTime;
+    volatile boolean terminated;
+    volatile boolean left;  // Gone to another building of the campus.
+    boolean admitted;    // Boarded from the queue (guarded by the lock of the car).
+    boolean singleTrip;  // Arrived with the traffic: one trip, then it stays.
+    Random random;
+    int resume = -1;     // Phase restored from a checkpoint (-1 if none).
+    long wakeTime;       // End of the rest, for a restored resting person.
+    Person prevAtFloor;  // Links of the occupants of the floor (guarded by it).
+    Person nextAtFloor;
     
     /**
      * Create a user of the elevator who is now at the given floor.
      */
-    Person(String name, Elevator elevator, Floor floor) {
-        super(name + "-thread");
+    Person(int id, String name, Building building, Floor floor) {
+        this.id = id;
         this.name = name;
-        this.location = floor;
-        this.elevator = elevator;
+        this.building = building;
+        this.random = building.newRandom();
+        setLocation(floor);
+    }
+    
+    /**
+     * Create a person arriving at a floor to go to the given destination.
+     */
+    Person(int id, String name, Building building, Floor floor, Floor destination) {
+        this(id, name, building, floor);
+        this.destination = destination;
+        this.singleTrip = true;
     }
 
     /**
@@ -43,7 +64,7 @@ public class Person extends Thread {
      * Tell if the person is inside the elevator.
      */
     public boolean isInElevator() {
-        return location == null;
+        return location == null && !left;
     }
     
     /**
@@ -55,9 +76,20 @@ public class Person extends Thread {
     
     /**
      * Set the new position (null for the elevator).
+     * 
+     * The occupants of the floors are updated as well.  The position of a
+     * person is changed by one thread at a time: its own, or the elevator
+     * it is getting in or out of.
      */
     public void setLocation(Floor f) {
+        Floor old = location;
+        if (old == f)
+            return;
+        if (old != null)
+            old.depart(this);
         location = f;
+        if (f != null)
+            f.arrive(this);
     }
     
     /**
@@ -71,10 +103,47 @@ public class Person extends Thread {
     public void run() {
         // Behavior of the person.
         terminated = false;
+        SimClock clock = building.clock;
         try {
+            if (building.replay != null && !singleTrip) {
+                replayTrips();
+                return;
+            }
+            // A restored person first completes the phase it was in.
+            boolean rested = false;
+            int phase = resume;
+            resume = -1;
+            if (phase >= 0 && phase != Checkpoint.PENDING) {
+                if (phase == Checkpoint.DONE)
+                    return;
+                if (phase == Checkpoint.RESTING) {
+                    if (wakeTime > clock.currentTimeMillis())
+                        clock.sleep(wakeTime - clock.currentTimeMillis());
+                    rested = true;
+                } else {
+                    if (phase == Checkpoint.WAITING)
+                        board(destination.isAbove(location) ? UP : DOWN);
+                    else
+                        ride();
+                    destination = null;
+                    if (singleTrip) {
+                        leaveAtLobby();
+                        return;
+                    }
+                }
+            }
+            if (singleTrip) {
+                movePerson();
+                destination = null;
+                leaveAtLobby();
+                return;
+            }
             while (!terminated) {
-                Thread.sleep(random.nextInt(2*WAITING_TIME));
+                if (!rested)
+                    clock.sleep(random.nextInt(2*WAITING_TIME));
+                rested = false;
                 destination = chooseDestination();
+                building.log(Recorder.TRIP, id, location.level, destination.level);
                 movePerson();
                 destination = null;
             }
@@ -84,7 +153,33 @@ public class Person extends Thread {
     }
 
     /**
-     * Ask the termination of the thread.
+     * At the end of a single trip at the lobby, the person may leave for
+     * another building of the campus.
+     */
+    private void leaveAtLobby() {
+        if (building.shard != null && location == building.floors.get(0))
+            building.shard.atLobby(this);
+    }
+
+    /**
+     * Make the trips of the person in the replayed log, at the same times.
+     */
+    private void replayTrips() throws InterruptedException {
+        SimClock clock = building.clock;
+        long[] trips = building.replay.tripsOf(id);
+        for (int i = 0; i < trips.length && !terminated; i += 2) {
+            // Always yield, as the recorded person slept before each trip.
+            long delay = building.startTime + trips[i] - clock.currentTimeMillis();
+            clock.sleep(Math.max(0, delay));
+            destination = building.floors.get((int) trips[i + 1]);
+            building.log(Recorder.TRIP, id, location.level, destination.level);
+            movePerson();
+            destination = null;
+        }
+    }
+
+    /**
+     * Ask the termination of the activity of the person.
      */
     public void terminate() {
         terminated = true;
@@ -92,8 +187,16 @@ public class Person extends Thread {
 
     /**
      * Choose a random floor.
+     * 
+     * When the building has a traffic pattern the destination follows it,
+     * otherwise the person walks a random number of floors.
      */
     private Floor chooseDestination() {
+        TrafficPattern traffic = building.traffic;
+        if (traffic != null) {
+            int level = traffic.destination(location.level, random);
+            return (level < 0 ? location : building.floors.get(level));
+        }
         int n = random.nextInt(30) + 1;
         Direction dir = UP;
         Floor f = location;
@@ -120,21 +223,36 @@ public class Person extends Thread {
         if (destination == null || destination == location)
             return;
         
-        /*=================================================================
-         * 
-         * --- TO BE COMPLETED ---
-         * 
-         * Called by the run "method" to move the person to his destination
-         * floor.
-         *
-         * The person will
-         * - call the elevator (for the right direction);
-         * - enter the elevator, when it arrives at the floor (see the
-         *   "elevator.enter" method);
-         * - request the stop at the destination floor;
-         * - exit from the elevator when he arrives to the floor (see the
-         *   the "elevator.exit" method).
-         *
-         *=================================================================*/
+        SimClock clock = building.clock;
+        Direction dir = (destination.isAbove(location) ? UP : DOWN);
+        callTime = clock.currentTimeMillis();
+        elevator = building.dispatch(location, dir, destination);
+        building.log(Recorder.CALL, id, location.level, 2 * elevator.getIndex() + (dir == UP ? 0 : 1));
+        board(dir);
+    }
+    
+    /**
+     * Wait for the assigned car, get in and ride to the destination.
+     */
+    private void board(Direction dir) throws InterruptedException {
+        SimClock clock = building.clock;
+        elevator.enter(this, location, dir);
+        boardTime = clock.currentTimeMillis();
+        destination.requestStop(elevator.getIndex());
+        ride();
+    }
+    
+    /**
+     * Ride to the destination and get out (the stop is requested again if
+     * the car has not yet arrived).
+     */
+    private void ride() throws InterruptedException {
+        SimClock clock = building.clock;
+        elevator.exit(this, destination);
+        elevator = null;
+        if (location == destination) {
+            building.completedTrips.incrementAndGet();
+            building.metrics.recordTrip(callTime, boardTime, clock.currentTimeMillis());
+        }
     }
 }
@@ -0,0 +1,513 @@
+package elevator;
+
+import static elevator.Direction.DOWN;
+import static elevator.Direction.UP;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persons of the building kept in primitive arrays instead of objects.
+ *
+ * Meant for very large populations: each person takes about fifty bytes
+ * (floor, destination, times and the links of the lists it belongs to) and
+ * no thread.  A single simulated activity wakes the persons in order of
+ * time, makes them choose a destination and call a car; the cars board and
+ * drop them at the floors together with the Person objects.  They behave
+ * like the persons added with Building.addNewPerson: they start at the
+ * bottom floor and keep moving at random, or following the traffic
+ * pattern.
+ *
+ * The persons are named "A1", "A2"... and the building answers the usual
+ * queries about them.  They are not included in the snapshots of the
+ * observers (which would cost a visit to the whole population at each
+ * event) and their trips are not recorded.
+ *
+ * All the state is guarded by the monitor of the population; the cars
+ * acquire it while holding their own lock, never the other way round.
+ *
+ * @author Claudio Cusano
+ */
+public class Population implements Runnable {
+
+    static final String PREFIX = "A";
+    static final int NONE = -1;
+
+    final Building building;
+    final SimClock clock;
+    final int size;
+    final int floors;
+    final Random random;
+    final boolean seeded;  // The random generator comes from the seed of the building.
+    volatile boolean terminated;
+
+    // The activity waits here for the first person due to move.  The
+    // deadline is lowered, and the activity woken up, when an earlier one
+    // is scheduled.  The lock is taken after the monitor, never before.
+    final ReentrantLock wake = new ReentrantLock();
+    final Condition due = wake.newCondition();
+    long alarm = Long.MAX_VALUE;  // Guarded by wake.
+    boolean restored;  // Continuing from a checkpoint: the persons are scheduled.
+
+    // State of each person.  A negative location -1-c means "in car c", a
+    // negative destination means that the person is not making a trip.
+    final int[] location;
+    final int[] destination;
+    final long[] callTime;
+    final long[] boardTime;
+    final long[] wakeTime;
+
+    // Doubly linked lists of the persons at each floor (the first lists)
+    // and in each car (the others), in order of arrival.
+    final int[] next;
+    final int[] prev;
+    final int[] head;
+    final int[] tail;
+    final int[] count;
+
+    // Queues of the persons waiting for a car, by car, floor and direction.
+    final int[] queueNext;
+    final int[] queueHead;
+    final int[] queueTail;
+
+    // Persons not making a trip, ordered by the time they will move.
+    final int[] heap;
+    int heapSize;
+
+    /**
+     * Create the given number of persons at the bottom floor of the building.
+     */
+    Population(Building building, int size) {
+        this.building = building;
+        this.clock = building.clock;
+        this.size = size;
+        this.floors = building.floors.size();
+        this.random = building.newRandom();
+        this.seeded = (building.seeds != null);
+        int cars = building.elevators.size();
+        location = new int[size];
+        destination = new int[size];
+        callTime = new long[size];
+        boardTime = new long[size];
+        wakeTime = new long[size];
+        next = new int[size];
+        prev = new int[size];
+        head = new int[floors + cars];
+        tail = new int[floors + cars];
+        count = new int[floors + cars];
+        queueNext = new int[size];
+        queueHead = new int[2 * cars * floors];
+        queueTail = new int[2 * cars * floors];
+        heap = new int[size];
+        Arrays.fill(head, NONE);
+        Arrays.fill(tail, NONE);
+        Arrays.fill(queueHead, NONE);
+        Arrays.fill(queueTail, NONE);
+        Arrays.fill(destination, NONE);
+        for (int i = 0; i < size; i++)
+            append(0, i);
+    }
+
+    @Override
+    public void run() {
+        terminated = false;
+        synchronized (this) {
+            long now = clock.currentTimeMillis();
+            if (!restored)
+                for (int i = 0; i < size; i++)
+                    schedule(i, now);
+            restored = false;
+        }
+        while (!terminated) {
+            wake.lock();
+            try {
+                alarm = Long.MAX_VALUE;  // From now on, every deadline lowers it.
+            } finally {
+                wake.unlock();
+            }
+            long now = clock.currentTimeMillis();
+            int i;
+            while ((i = nextDue(now)) != NONE)
+                depart(i, now);
+            long next;
+            synchronized (this) {
+                next = (heapSize == 0 ? Long.MAX_VALUE : wakeTime[heap[0]]);
+            }
+            wake.lock();
+            try {
+                alarm = Math.min(alarm, next);
+                if (!terminated && alarm > now)
+                    clock.awaitUntil(due, wake, alarm);
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+                return;
+            } finally {
+                wake.unlock();
+            }
+        }
+    }
+
+    /**
+     * Ask the termination of the activity moving the persons.
+     */
+    public void terminate() {
+        terminated = true;
+        wake.lock();
+        try {
+            clock.signalAll(due);
+        } finally {
+            wake.unlock();
+        }
+    }
+
+    /**
+     * Number of persons.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Make the person choose a destination and call a car.
+     */
+    private void depart(int i, long now) {
+        int from;
+        int to;
+        synchronized (this) {
+            from = location[i];
+            to = chooseDestination(from);
+            if (to == from) {
+                schedule(i, now);
+                return;
+            }
+            destination[i] = to;
+            callTime[i] = now;
+        }
+        Floor f = building.floors.get(from);
+        Direction dir = (to > from ? UP : DOWN);
+        Elevator car = building.dispatch(f, dir, building.floors.get(to));
+        car.lock.lock();
+        try {
+            synchronized (this) {
+                int q = queue(car.index, from, dir);
+                queueNext[i] = NONE;
+                if (queueTail[q] == NONE)
+                    queueHead[q] = i;
+                else
+                    queueNext[queueTail[q]] = i;
+                queueTail[q] = i;
+            }
+            if (car.open && car.position == f)
+                car.admit(f);
+        } finally {
+            car.lock.unlock();
+        }
+    }
+
+    /**
+     * Board the persons waiting for the car at the floor, first those going
+     * in the given direction, up to the given room (the lock of the car must
+     * be held).  Return how many got in.
+     */
+    synchronized int board(Elevator car, int level, Direction first, int room) {
+        int n = board(car, queue(car.index, level, first), room);
+        return n + board(car, queue(car.index, level, (first == UP ? DOWN : UP)), room - n);
+    }
+
+    private int board(Elevator car, int q, int room) {
+        int n = 0;
+        long now = clock.currentTimeMillis();
+        while (n < room && queueHead[q] != NONE) {
+            int i = queueHead[q];
+            queueHead[q] = queueNext[i];
+            if (queueHead[q] == NONE)
+                queueTail[q] = NONE;
+            remove(location[i], i);
+            location[i] = -1 - car.index;
+            append(floors + car.index, i);
+            boardTime[i] = now;
+            building.floors.get(destination[i]).requestStop(car.index);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Let the passengers of the car get out at their destination (the lock
+     * of the car must be held).  Return how many got out.
+     */
+    synchronized int alight(Elevator car, int level) {
+        int n = 0;
+        long now = clock.currentTimeMillis();
+        int i = head[floors + car.index];
+        while (i != NONE) {
+            int j = next[i];
+            if (destination[i] == level) {
+                remove(floors + car.index, i);
+                location[i] = level;
+                destination[i] = NONE;
+                append(level, i);
+                building.completedTrips.incrementAndGet();
+                building.metrics.recordTrip(callTime[i], boardTime[i], now);
+                schedule(i, now);
+                n++;
+            }
+            i = j;
+        }
+        return n;
+    }
+
+    /**
+     * Tell if some persons wait for the car at the floor, to go in the given
+     * direction.
+     */
+    synchronized boolean isWaiting(Elevator car, int level, Direction dir) {
+        return queueHead[queue(car.index, level, dir)] != NONE;
+    }
+
+    /**
+     * Number of persons in the car.
+     */
+    synchronized int riding(int car) {
+        return count[floors + car];
+    }
+
+    /**
+     * Number of persons at the floor.
+     */
+    synchronized int countAt(int level) {
+        return count[level];
+    }
+
+    /**
+     * Names of the persons at the floor, in order of arrival.
+     */
+    synchronized List<String> namesAt(int level) {
+        return names(level);
+    }
+
+    /**
+     * Names of the persons in the car, in order of boarding.
+     */
+    synchronized List<String> namesIn(int car) {
+        return names(floors + car);
+    }
+
+    /**
+     * Level of the destination of the person with the given name (-1 if the
+     * person is not making a trip or does not exist).
+     */
+    synchronized int destinationOf(String name) {
+        int i = indexOf(name);
+        return (i == NONE ? NONE : destination[i]);
+    }
+
+    /**
+     * Level where the person with the given name is (-1 if the person is in
+     * a car or does not exist).
+     */
+    synchronized int locationOf(String name) {
+        int i = indexOf(name);
+        return (i == NONE || location[i] < 0 ? NONE : location[i]);
+    }
+
+    /** Position of the person with the given name (-1 if there is none). */
+    int indexOf(String name) {
+        if (!name.startsWith(PREFIX))
+            return NONE;
+        try {
+            int i = Integer.parseInt(name.substring(PREFIX.length())) - 1;
+            return (i >= 0 && i < size ? i : NONE);
+        } catch (NumberFormatException ex) {
+            return NONE;
+        }
+    }
+
+    /** Names of the persons in a list. */
+    private List<String> names(int list) {
+        List<String> ret = new ArrayList<>(count[list]);
+        for (int i = head[list]; i != NONE; i = next[i])
+            ret.add(PREFIX + (i + 1));
+        return ret;
+    }
+
+    /**
+     * Write the state of the persons in a checkpoint: their trips, the
+     * lists and the queues in order, and the heap as it is.
+     */
+    synchronized void write(Checkpoint.Out out) throws IOException {
+        out.writeVar(size);
+        for (int i = 0; i < size; i++) {
+            out.writeVar(location[i]);
+            out.writeVar(destination[i]);
+            out.writeVar(callTime[i]);
+            out.writeVar(boardTime[i]);
+            out.writeVar(wakeTime[i]);
+        }
+        for (int list = 0; list < head.length; list++) {
+            out.writeVar(count[list]);
+            for (int i = head[list]; i != NONE; i = next[i])
+                out.writeVar(i);
+        }
+        for (int q = 0; q < queueHead.length; q++) {
+            int n = 0;
+            for (int i = queueHead[q]; i != NONE; i = queueNext[i])
+                n++;
+            out.writeVar(n);
+            for (int i = queueHead[q]; i != NONE; i = queueNext[i])
+                out.writeVar(i);
+        }
+        out.writeVar(heapSize);
+        for (int k = 0; k < heapSize; k++)
+            out.writeVar(heap[k]);
+    }
+
+    /**
+     * Read the state written by write (the size has already been read).
+     */
+    synchronized void read(Checkpoint.In in) throws IOException {
+        int cars = head.length - floors;
+        for (int i = 0; i < size; i++) {
+            location[i] = in.readInt(-cars, floors - 1);
+            destination[i] = in.readInt(NONE, floors - 1);
+            callTime[i] = in.readVar();
+            boardTime[i] = in.readVar();
+            wakeTime[i] = in.readVar();
+        }
+        Arrays.fill(head, NONE);
+        Arrays.fill(tail, NONE);
+        Arrays.fill(count, 0);
+        for (int list = 0; list < head.length; list++) {
+            int n = in.readInt(0, size);
+            for (int k = 0; k < n; k++)
+                append(list, in.readInt(0, size - 1));
+        }
+        Arrays.fill(queueHead, NONE);
+        Arrays.fill(queueTail, NONE);
+        for (int q = 0; q < queueHead.length; q++) {
+            int n = in.readInt(0, size);
+            for (int k = 0; k < n; k++) {
+                int i = in.readInt(0, size - 1);
+                queueNext[i] = NONE;
+                if (queueTail[q] == NONE)
+                    queueHead[q] = i;
+                else
+                    queueNext[queueTail[q]] = i;
+                queueTail[q] = i;
+            }
+        }
+        heapSize = in.readInt(0, size);
+        for (int k = 0; k < heapSize; k++)
+            heap[k] = in.readInt(0, size - 1);
+        restored = true;
+    }
+
+    /** Index of the waiting queue. */
+    private int queue(int car, int level, Direction dir) {
+        return 2 * (car * floors + level) + (dir == UP ? 0 : 1);
+    }
+
+    /**
+     * Choose the destination of the next trip, as Person does.
+     */
+    private int chooseDestination(int level) {
+        TrafficPattern traffic = building.traffic;
+        if (traffic != null) {
+            int d = traffic.destination(level, random);
+            return (d < 0 ? level : d);
+        }
+        int n = random.nextInt(30) + 1;
+        int dir = 1;
+        int f = level;
+        while (n > 0) {
+            int g = f + dir;
+            if (g < 0 || g >= floors) {
+                dir = -dir;
+            } else {
+                f = g;
+                n--;
+            }
+        }
+        return f;
+    }
+
+    /** Add the person at the end of a list. */
+    private void append(int list, int i) {
+        prev[i] = tail[list];
+        next[i] = NONE;
+        if (tail[list] == NONE)
+            head[list] = i;
+        else
+            next[tail[list]] = i;
+        tail[list] = i;
+        count[list]++;
+    }
+
+    /** Remove the person from a list. */
+    private void remove(int list, int i) {
+        if (prev[i] == NONE)
+            head[list] = next[i];
+        else
+            next[prev[i]] = next[i];
+        if (next[i] == NONE)
+            tail[list] = prev[i];
+        else
+            prev[next[i]] = prev[i];
+        count[list]--;
+    }
+
+    /** Let the person rest for a while before the next trip. */
+    private void schedule(int i, long now) {
+        wakeTime[i] = now + random.nextInt(2 * Person.WAITING_TIME);
+        int k = heapSize++;
+        while (k > 0) {
+            int parent = (k - 1) / 2;
+            if (wakeTime[heap[parent]] <= wakeTime[i])
+                break;
+            heap[k] = heap[parent];
+            k = parent;
+        }
+        heap[k] = i;
+        if (k == 0)
+            wakeUp(wakeTime[i]);
+    }
+
+    /** Make sure that the activity moves the persons due at the given time. */
+    private void wakeUp(long time) {
+        wake.lock();
+        try {
+            if (time < alarm) {
+                alarm = time;
+                clock.signalAll(due);
+            }
+        } finally {
+            wake.unlock();
+        }
+    }
+
+    /** Remove the first person who has to move by the given time (-1 if none). */
+    private synchronized int nextDue(long now) {
+        if (heapSize == 0 || wakeTime[heap[0]] > now)
+            return NONE;
+        int first = heap[0];
+        int last = heap[--heapSize];
+        int k = 0;
+        while (true) {
+            int c = 2 * k + 1;
+            if (c >= heapSize)
+                break;
+            if (c + 1 < heapSize && wakeTime[heap[c + 1]] < wakeTime[heap[c]])
+                c++;
+            if (wakeTime[last] <= wakeTime[heap[c]])
+                break;
+            heap[k] = heap[c];
+            k = c;
+        }
+        heap[k] = last;
+        return first;
+    }
+}
@@ -0,0 +1,115 @@
+package elevator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Record of the events of a simulation, in a compact binary log.
+ *
+ * The log holds the trips decided by the persons, the arrivals of new
+ * persons, the calls, the boardings, the alightings and the changes of
+ * state of the cars.  Each event takes a kind byte, the time elapsed since
+ * the previous event and three small integers, all encoded as variable
+ * length integers: a few bytes per event.  A Replay reads the log back.
+ *
+ * @author Claudio Cusano
+ */
+public class Recorder implements Closeable {
+
+    static final int MAGIC = 0x454c4f47;  // "ELOG"
+    static final int VERSION = 1;
+
+    // Kinds of event, and meaning of their arguments.
+    static final int TRIP = 0;     // person, origin, destination
+    static final int ARRIVAL = 1;  // person, origin, destination
+    static final int CALL = 2;     // person, floor, 2 * car + (1 if down)
+    static final int BOARD = 3;    // person, floor, car
+    static final int ALIGHT = 4;   // person, floor, car
+    static final int STATE = 5;    // car, floor, 0 waiting / 1 up / 2 down
+    static final String[] KINDS = { "trip", "arrival", "call", "board", "alight", "state" };
+
+    final DataOutputStream out;
+    long last;
+    long events;
+    IOException error;
+
+    /**
+     * Create a recorder writing to the given stream.
+     */
+    public Recorder(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    /** Write the header describing the building. */
+    synchronized void begin(int floors, int cars) {
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeVarLong(floors);
+            writeVarLong(cars);
+        } catch (IOException ex) {
+            error = ex;
+        }
+    }
+
+    /**
+     * Append an event (the time is measured from the start of the
+     * simulation).
+     */
+    synchronized void event(int kind, long time, int a, int b, int c) {
+        if (error != null)
+            return;
+        try {
+            out.writeByte(kind);
+            // Zigzag encoding: with the wall clock, events of different
+            // threads may be logged slightly out of order.
+            long delta = time - last;
+            writeVarLong((delta << 1) ^ (delta >> 63));
+            writeVarLong(a);
+            writeVarLong(b);
+            writeVarLong(c);
+            last = time;
+            events++;
+        } catch (IOException ex) {
+            error = ex;
+        }
+    }
+
+    /** Write a non negative value, seven bits per byte. */
+    void writeVarLong(long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            out.writeByte((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    /**
+     * Number of events recorded.
+     */
+    public synchronized long getEventCount() {
+        return events;
+    }
+
+    /**
+     * Flush and close the log.
+     *
+     * Writing errors are reported here, the recording never stops the
+     * simulation.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+        if (error != null)
+            throw error;
+    }
+
+    /** Readable description of an event. */
+    static String describe(int kind, long time, int a, int b, int c) {
+        String k = (kind >= 0 && kind < KINDS.length ? KINDS[kind] : "kind " + kind);
+        return k + "(" + a + ", " + b + ", " + c + ") at " + time + " ms";
+    }
+}
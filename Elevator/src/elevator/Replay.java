@@ -0,0 +1,214 @@
+package elevator;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Replay of a simulation recorded by a Recorder.
+ *
+ * The replayed building takes its input from the log: the persons make the
+ * trips they made in the recorded run, at the same times, and new persons
+ * arrive as they did.  Everything else (calls, boardings, alightings and
+ * states of the cars) is produced again by the simulation, and compared
+ * with the log: on the virtual clock, with the same dispatcher, the two
+ * runs are identical event by event.  With a different dispatcher the
+ * input stays the same, so that the two runs can be compared; the first
+ * divergence is then just informative.
+ *
+ * The persons added to the replayed building must be the same (and added
+ * in the same order) as in the recorded one.
+ *
+ * @author Claudio Cusano
+ */
+public class Replay {
+
+    final int floors;
+    final int cars;
+    final int size;
+    final byte[] kinds;
+    final long[] times;
+    final int[] a;
+    final int[] b;
+    final int[] c;
+    long[][] plans;  // Trips of each person, built on first use.
+    int checked;
+    String divergence;
+
+    Replay(int floors, int cars, int size, byte[] kinds, long[] times, int[] a, int[] b, int[] c) {
+        this.floors = floors;
+        this.cars = cars;
+        this.size = size;
+        this.kinds = kinds;
+        this.times = times;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+    }
+
+    /**
+     * Read a log written by a Recorder.
+     */
+    public static Replay read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if (in.readInt() != Recorder.MAGIC)
+            throw new IOException("Not a simulation log");
+        int version = in.readUnsignedByte();
+        if (version != Recorder.VERSION)
+            throw new IOException("Unsupported log version " + version);
+        int floors = (int) readVarLong(in);
+        int cars = (int) readVarLong(in);
+        int n = 0;
+        byte[] kinds = new byte[1024];
+        long[] times = new long[1024];
+        int[] a = new int[1024];
+        int[] b = new int[1024];
+        int[] c = new int[1024];
+        long time = 0;
+        for (;;) {
+            int kind = in.read();
+            if (kind < 0)
+                break;
+            if (n == kinds.length) {
+                kinds = Arrays.copyOf(kinds, 2 * n);
+                times = Arrays.copyOf(times, 2 * n);
+                a = Arrays.copyOf(a, 2 * n);
+                b = Arrays.copyOf(b, 2 * n);
+                c = Arrays.copyOf(c, 2 * n);
+            }
+            long z = readVarLong(in);
+            time += (z >>> 1) ^ -(z & 1);
+            kinds[n] = (byte) kind;
+            times[n] = time;
+            a[n] = (int) readVarLong(in);
+            b[n] = (int) readVarLong(in);
+            c[n] = (int) readVarLong(in);
+            n++;
+        }
+        return new Replay(floors, cars, n, kinds, times, a, b, c);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int x = in.read();
+            if (x < 0)
+                throw new EOFException("Truncated simulation log");
+            v |= (long) (x & 0x7f) << shift;
+            if ((x & 0x80) == 0)
+                return v;
+        }
+        throw new IOException("Malformed simulation log");
+    }
+
+    /** Number of events in the log. */
+    public int getEventCount() {
+        return size;
+    }
+
+    /**
+     * Trips of the given person: pairs of time and destination level.
+     */
+    synchronized long[] tripsOf(int person) {
+        if (plans == null) {
+            int persons = 0;
+            for (int i = 0; i < size; i++)
+                if (kinds[i] == Recorder.TRIP || kinds[i] == Recorder.ARRIVAL)
+                    persons = Math.max(persons, a[i] + 1);
+            int[] count = new int[persons];
+            for (int i = 0; i < size; i++)
+                if (kinds[i] == Recorder.TRIP)
+                    count[a[i]]++;
+            plans = new long[persons][];
+            for (int p = 0; p < persons; p++)
+                plans[p] = new long[2 * count[p]];
+            Arrays.fill(count, 0);
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] == Recorder.TRIP) {
+                    int k = count[a[i]]++;
+                    plans[a[i]][2 * k] = times[i];
+                    plans[a[i]][2 * k + 1] = c[i];
+                }
+            }
+        }
+        return (person < plans.length ? plans[person] : new long[0]);
+    }
+
+    /**
+     * Compare an event of the replayed run with the log.
+     */
+    synchronized void check(int kind, long time, int a, int b, int c) {
+        if (divergence != null)
+            return;
+        int i = checked++;
+        if (i >= size) {
+            divergence = "event #" + i + ": " + Recorder.describe(kind, time, a, b, c)
+                    + " not in the log";
+        } else if (kinds[i] != kind || times[i] != time || this.a[i] != a
+                || this.b[i] != b || this.c[i] != c) {
+            divergence = "event #" + i + ": expected "
+                    + Recorder.describe(kinds[i], times[i], this.a[i], this.b[i], this.c[i])
+                    + ", got " + Recorder.describe(kind, time, a, b, c);
+        }
+    }
+
+    /**
+     * First difference between the replayed run and the log (null if none
+     * so far).
+     */
+    public synchronized String getDivergence() {
+        if (divergence == null && checked < size)
+            return "event #" + checked + ": "
+                    + Recorder.describe(kinds[checked], times[checked], a[checked], b[checked], c[checked])
+                    + " not replayed";
+        return divergence;
+    }
+
+    /**
+     * Tell if the replayed run has produced exactly the events of the log.
+     */
+    public boolean matches() {
+        return getDivergence() == null;
+    }
+
+    /**
+     * Activity bringing in the building the persons arriving in the log.
+     */
+    class Arrivals implements Runnable {
+
+        final Building building;
+        volatile boolean terminated;
+
+        Arrivals(Building building) {
+            this.building = building;
+        }
+
+        @Override
+        public void run() {
+            SimClock clock = building.clock;
+            try {
+                for (int i = 0; i < size && !terminated; i++) {
+                    if (kinds[i] != Recorder.ARRIVAL)
+                        continue;
+                    // Always yield, as the traffic generator did: the
+                    // persons who arrived before call the cars first.
+                    long delay = building.startTime + times[i] - clock.currentTimeMillis();
+                    clock.sleep(Math.max(0, delay));
+                    if (terminated)
+                        break;
+                    building.addArrival(building.floors.get(b[i]), building.floors.get(c[i]));
+                }
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+        }
+
+        /** Stop the arrivals. */
+        void terminate() {
+            terminated = true;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package elevator;
+
+import static elevator.Direction.DOWN;
+import static elevator.Direction.UP;
+
+/**
+ * Keep going while there are requests ahead, then go towards the side with
+ * more calls and stop requests (the original behavior of the elevator).
+ *
+ * @author Claudio Cusano
+ */
+public class RequestCountControl implements CollectiveControl {
+
+    @Override
+    public Direction chooseDirection(Elevator car, Direction current) {
+        if (current != null && car.countRequests(current) > 0)
+            return current;
+        int up = car.countRequests(UP);
+        int down = car.countRequests(DOWN);
+        if (up > down)
+            return UP;
+        return (down > 0 ? DOWN : null);
+    }
+}
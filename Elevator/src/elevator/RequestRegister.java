@@ -0,0 +1,251 @@
+package elevator;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Calls and stop requests of all the elevators of a building.
+ *
+ * For each car there are three bit sets indexed by the level of the floors:
+ * calls for going up, calls for going down and stops requested by the
+ * passengers.  This way the requests in a range of floors are counted with a
+ * few bitwise operations instead of visiting the floors one by one.
+ *
+ * The words are updated with compare-and-set, without locks: persons set
+ * requests from their own threads while the elevators read and clear them,
+ * and no update can be lost or seen late.
+ *
+ * @author Claudio Cusano
+ */
+class RequestRegister {
+
+    static final int UP_CALLS = 0;
+    static final int DOWN_CALLS = 1;
+    static final int STOPS = 2;
+    static final int KINDS = 3;
+
+    final int floors;
+    final int cars;
+    final int words;  // Words in a bit set.
+    final AtomicLongArray bits;
+    final AtomicLongArray callTimes;  // When each call was made.
+    final Floor[] byLevel;
+    final List<String> floorNames;  // By level, for the snapshots.
+    final Elevator[] elevators;  // Woken up when they receive a request.
+
+    /**
+     * Create the register for the floors linked above the given one, and
+     * assign their levels.
+     */
+    RequestRegister(Floor bottom, int cars) {
+        int n = 0;
+        for (Floor f = bottom; f != null; f = f.next)
+            n++;
+        floors = n;
+        this.cars = cars;
+        words = (n + 63) >>> 6;
+        bits = new AtomicLongArray(cars * KINDS * words);
+        callTimes = new AtomicLongArray(cars * 2 * n);
+        byLevel = new Floor[n];
+        elevators = new Elevator[cars];
+        int level = 0;
+        for (Floor f = bottom; f != null; f = f.next) {
+            f.level = level;
+            f.register = this;
+            byLevel[level++] = f;
+        }
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++)
+            names[i] = byLevel[i].getName();
+        floorNames = ElevatorSnapshot.names(names);
+    }
+
+    /** Kind of the call for the given direction. */
+    static int callKind(Direction d) {
+        return (d == Direction.UP ? UP_CALLS : DOWN_CALLS);
+    }
+
+    /** Position of the word holding the level in the given bit set. */
+    int word(int car, int kind, int level) {
+        return (car * KINDS + kind) * words + (level >>> 6);
+    }
+
+    /** Set a request. */
+    void set(int car, int kind, int level) {
+        int w = word(car, kind, level);
+        long bit = 1L << level;
+        long old;
+        do {
+            old = bits.get(w);
+            if ((old & bit) != 0)
+                return;
+        } while (!bits.compareAndSet(w, old, old | bit));
+        Elevator e = elevators[car];
+        if (kind != STOPS && e != null)
+            callTimes.set((car * 2 + kind) * floors + level, e.clock.currentTimeMillis());
+        if (e != null)
+            e.requestArrived();
+    }
+
+    /**
+     * Cancel a request.
+     *
+     * Return true if the request was set: when several threads try to clear
+     * the same request only one of them succeeds.
+     */
+    boolean clear(int car, int kind, int level) {
+        int w = word(car, kind, level);
+        long bit = 1L << level;
+        long old;
+        do {
+            old = bits.get(w);
+            if ((old & bit) == 0)
+                return false;
+        } while (!bits.compareAndSet(w, old, old & ~bit));
+        return true;
+    }
+
+    /**
+     * Cancel all the requests of the car at the level (calls in both
+     * directions and stop).  Return true if at least one was set.
+     */
+    boolean clearAll(int car, int level) {
+        boolean served = clear(car, STOPS, level);
+        served |= clear(car, UP_CALLS, level);
+        served |= clear(car, DOWN_CALLS, level);
+        return served;
+    }
+
+    /** Tell if the request is set. */
+    boolean test(int car, int kind, int level) {
+        return (bits.get(word(car, kind, level)) & (1L << level)) != 0;
+    }
+
+    /** Tell if any car has the request set. */
+    boolean testAnyCar(int kind, int level) {
+        for (int car = 0; car < cars; car++)
+            if (test(car, kind, level))
+                return true;
+        return false;
+    }
+
+    /** Tell if the car has any kind of request at the level. */
+    boolean any(int car, int level) {
+        return (requests(car, level >>> 6) & (1L << level)) != 0;
+    }
+
+    /** Union of the three bit sets of the car, for the given word. */
+    long requests(int car, int w) {
+        int base = car * KINDS * words + w;
+        return bits.get(base) | bits.get(base + words) | bits.get(base + 2 * words);
+    }
+
+    /** Mask selecting, in word w, the levels in [from, to). */
+    static long rangeMask(int w, int from, int to) {
+        int lo = Math.max(from - (w << 6), 0);
+        int hi = Math.min(to - (w << 6), 64);
+        if (lo >= hi)
+            return 0L;
+        long upper = (hi == 64 ? -1L : (1L << hi) - 1);
+        return upper & (-1L << lo);
+    }
+
+    /** Time when the call was made (if it is set). */
+    long callTime(int car, int kind, int level) {
+        return callTimes.get((car * 2 + kind) * floors + level);
+    }
+
+    /**
+     * Number of floors beyond the level, in the given direction, where the
+     * car has been called or has to stop.
+     */
+    int count(int car, int level, Direction d) {
+        int from = (d == Direction.UP ? level + 1 : 0);
+        int to = (d == Direction.UP ? floors : level);
+        int n = 0;
+        for (int w = from >>> 6; w < words && (w << 6) < to; w++)
+            n += Long.bitCount(requests(car, w) & rangeMask(w, from, to));
+        return n;
+    }
+
+    /**
+     * Number of floors beyond the level, in the given direction, where the
+     * passengers of the car asked to stop.
+     */
+    int countStops(int car, int level, Direction d) {
+        int from = (d == Direction.UP ? level + 1 : 0);
+        int to = (d == Direction.UP ? floors : level);
+        int base = (car * KINDS + STOPS) * words;
+        int n = 0;
+        for (int w = from >>> 6; w < words && (w << 6) < to; w++)
+            n += Long.bitCount(bits.get(base + w) & rangeMask(w, from, to));
+        return n;
+    }
+
+    /**
+     * Level of the nearest floor beyond the given one, in the given
+     * direction, where the car has any request (-1 if there is none).
+     */
+    int nearestRequest(int car, int level, Direction d) {
+        if (d == Direction.UP) {
+            for (int w = (level + 1) >>> 6; w < words; w++) {
+                long m = requests(car, w) & rangeMask(w, level + 1, floors);
+                if (m != 0)
+                    return (w << 6) + Long.numberOfTrailingZeros(m);
+            }
+        } else {
+            for (int w = (level - 1) >> 6; w >= 0; w--) {
+                long m = requests(car, w) & rangeMask(w, 0, level);
+                if (m != 0)
+                    return (w << 6) + 63 - Long.numberOfLeadingZeros(m);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Level of the nearest floor beyond the given one, in the given
+     * direction, where the car has to stop or (if calls is true) has been
+     * called for that direction (-1 if there is none).
+     */
+    int nearest(int car, int level, Direction d, boolean calls) {
+        int base = car * KINDS * words;
+        int stops = base + STOPS * words;
+        int called = (calls ? base + callKind(d) * words : stops);
+        if (d == Direction.UP) {
+            for (int w = (level + 1) >>> 6; w < words; w++) {
+                long m = (bits.get(called + w) | bits.get(stops + w)) & rangeMask(w, level + 1, floors);
+                if (m != 0)
+                    return (w << 6) + Long.numberOfTrailingZeros(m);
+            }
+        } else {
+            for (int w = (level - 1) >> 6; w >= 0; w--) {
+                long m = (bits.get(called + w) | bits.get(stops + w)) & rangeMask(w, 0, level);
+                if (m != 0)
+                    return (w << 6) + 63 - Long.numberOfLeadingZeros(m);
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Level of the farthest floor beyond the given one, in the given
+     * direction, where the car has a request (-1 if there is none).
+     */
+    int farthest(int car, int level, Direction d) {
+        if (d == Direction.UP) {
+            for (int w = words - 1; w >= 0 && ((w + 1) << 6) > level + 1; w--) {
+                long m = requests(car, w) & rangeMask(w, level + 1, floors);
+                if (m != 0)
+                    return (w << 6) + 63 - Long.numberOfLeadingZeros(m);
+            }
+        } else {
+            for (int w = 0; w < words && (w << 6) < level; w++) {
+                long m = requests(car, w) & rangeMask(w, 0, level);
+                if (m != 0)
+                    return (w << 6) + Long.numberOfTrailingZeros(m);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,61 @@
+package elevator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Source of time for the simulation.
+ *
+ * Every delay of the elevator and of the persons, and every wait for a
+ * condition on the elevator, goes through the clock.  This way the same
+ * simulation can be run in real time (WallClock) or on a virtual time line
+ * (VirtualClock) where the simulated activities take turns and the time
+ * jumps directly to the next scheduled event.
+ *
+ * @author Claudio Cusano
+ */
+public abstract class SimClock {
+
+    /** Current simulated time, in milliseconds from the start. */
+    public abstract long currentTimeMillis();
+
+    /** Suspend the calling simulated activity for the given time. */
+    public abstract void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Register the calling thread as a participant of the simulation.
+     *
+     * Used by the thread driving the simulation (the one calling
+     * Building.startSimulation).
+     */
+    abstract void attach();
+
+    /** The calling thread leaves the simulation. */
+    abstract void detach();
+
+    /** Start a new simulated activity, running its body on the executor. */
+    abstract void start(Runnable body, Executor executor);
+
+    /** Wait for the termination of a simulated activity. */
+    abstract void join(Runnable body) throws InterruptedException;
+
+    /**
+     * Wait on the condition of the given lock (which must be held by the
+     * caller).
+     */
+    abstract void await(Condition cond, ReentrantLock lock) throws InterruptedException;
+
+    /**
+     * Wait on the condition of the given lock (which must be held by the
+     * caller) until it is signaled or the clock reaches the deadline
+     * (Long.MAX_VALUE for no deadline).
+     */
+    abstract void awaitUntil(Condition cond, ReentrantLock lock, long deadline) throws InterruptedException;
+
+    /**
+     * Wake up all the activities waiting on the condition (whose lock must be
+     * held by the caller).
+     */
+    abstract void signalAll(Condition cond);
+}
@@ -0,0 +1,14 @@
+package elevator;
+
+/**
+ * Observer receiving, for each change of an elevator, a snapshot of the
+ * building.
+ * 
+ * @author Claudio Cusano
+ */
+public interface SnapshotObserver {
+    /**
+     * Called when something changes in the observed elevator.
+     */
+    void elevatorChanged(ElevatorSnapshot snapshot);
+}
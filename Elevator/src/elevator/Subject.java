@@ -1,34 +1,88 @@
 package elevator;
 
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /**
  * Base class for the "Observer" pattern.
  * 
+ * For each change a snapshot of the state is taken (only if some observer
+ * wants it) and passed to all the observers.  By default the observers are
+ * notified synchronously, by the thread that changed the subject.  When a
+ * notifier is set, the notifications are queued and delivered by the thread
+ * of the notifier instead.
+ * 
  * @author Claudio Cusano
  */
 public class Subject {
-    ArrayList<ElevatorObserver> observers;
+    // Copy on write: observers can be added or removed during a delivery.
+    List<SnapshotObserver> observers;
+    volatile int snapshotObservers;  // Those which are not adapters.
+    AsyncNotifier notifier;
+    boolean pending;  // Queued in the notifier (guarded by the notifier).
+    ElevatorSnapshot pendingSnapshot;  // Idem.
 
     /** Constructor. */
     public Subject() {
-        this.observers = new ArrayList<>();
+        this.observers = new CopyOnWriteArrayList<>();
     }
     
     /** Add a new observer. */
     public void addObserver(ElevatorObserver observer) {
-        observers.add(observer);
+        observers.add(new ElevatorObserverAdapter(observer));
+    }
+    
+    /** Add a new observer receiving the snapshots. */
+    public void addObserver(SnapshotObserver observer) {
+        synchronized (observers) {
+            observers.add(observer);
+            if (!(observer instanceof ElevatorObserverAdapter))
+                snapshotObservers++;
+        }
     }
     
     /** Remove the observer. */
     public void removeObserver(ElevatorObserver observer) {
-        observers.remove(observer);
+        observers.remove(new ElevatorObserverAdapter(observer));
+    }
+    
+    /** Remove the observer. */
+    public void removeObserver(SnapshotObserver observer) {
+        synchronized (observers) {
+            if (observers.remove(observer) && !(observer instanceof ElevatorObserverAdapter))
+                snapshotObservers--;
+        }
+    }
+    
+    /** Deliver the notifications through the given notifier (null for synchronous delivery). */
+    void setNotifier(AsyncNotifier notifier) {
+        this.notifier = notifier;
     }
     
     /** Notify all the observers .*/
     public void notifyObservers() {
-        for (ElevatorObserver o : observers)
-            o.elevatorMoved();
+        ElevatorSnapshot s = (needsSnapshot() ? snapshot() : null);
+        AsyncNotifier n = notifier;
+        if (n == null)
+            deliver(s);
+        else
+            n.publish(this, s);
+    }
+    
+    /** Tell if some observer uses the snapshots. */
+    boolean needsSnapshot() {
+        return snapshotObservers > 0;
+    }
+    
+    /** Take the snapshot of the state (none by default). */
+    ElevatorSnapshot snapshot() {
+        return null;
+    }
+    
+    /** Call the observers. */
+    void deliver(ElevatorSnapshot s) {
+        for (SnapshotObserver o : observers)
+            o.elevatorChanged(s);
     }
 }
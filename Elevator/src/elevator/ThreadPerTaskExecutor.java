@@ -0,0 +1,31 @@
+package elevator;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor running every task on a new platform thread.
+ *
+ * This is the default way to run the activities of the simulation: one
+ * named thread each, as easy to follow in a debugger as the former threads.
+ *
+ * @author Claudio Cusano
+ */
+class ThreadPerTaskExecutor implements Executor {
+
+    final String prefix;
+    int count;
+
+    /** The threads are named prefix1, prefix2... */
+    ThreadPerTaskExecutor(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        String name;
+        synchronized (this) {
+            name = prefix + (++count);
+        }
+        new Thread(task, name).start();
+    }
+}
@@ -0,0 +1,188 @@
+package elevator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pattern of the traffic in a building.
+ *
+ * Persons arrive at the floors as a Poisson process whose rate can change
+ * over time (for instance to model the morning peak), and each one travels
+ * from an origin to a destination chosen with the probabilities given by an
+ * origin/destination matrix.  The factory methods build the matrices of the
+ * classic patterns: up-peak, down-peak, lunch and inter-floor traffic.
+ *
+ * Patterns are immutable: the same pattern can drive several buildings.
+ *
+ * @author Claudio Cusano
+ */
+public class TrafficPattern {
+
+    final int floors;
+    final double[][] weights;   // Relative frequency of the trips (origin, destination).
+    final double[] cumulative;  // Cumulative weights, row by row.
+    final long period;          // Duration of each rate in milliseconds.
+    final double[] perMinute;   // Arrivals per minute, period by period.
+
+    /**
+     * Create a pattern with a constant arrival rate.
+     *
+     * weights[i][j] is the relative frequency of the trips from level i to
+     * level j (the diagonal is ignored); the rate is given in arrivals per
+     * minute in the whole building.
+     */
+    public TrafficPattern(double[][] weights, double perMinute) {
+        this(weights, 0, new double[] { perMinute });
+    }
+
+    TrafficPattern(double[][] weights, long period, double[] perMinute) {
+        floors = weights.length;
+        this.weights = new double[floors][];
+        cumulative = new double[floors * floors];
+        double total = 0;
+        for (int i = 0; i < floors; i++) {
+            if (weights[i].length != floors)
+                throw new IllegalArgumentException("The origin/destination matrix must be square");
+            this.weights[i] = weights[i].clone();
+            this.weights[i][i] = 0;
+            for (int j = 0; j < floors; j++) {
+                if (this.weights[i][j] < 0)
+                    throw new IllegalArgumentException("Negative weight in the origin/destination matrix");
+                total += this.weights[i][j];
+                cumulative[i * floors + j] = total;
+            }
+        }
+        if (total <= 0)
+            throw new IllegalArgumentException("The origin/destination matrix is empty");
+        this.period = period;
+        this.perMinute = perMinute.clone();
+    }
+
+    /**
+     * The same pattern with an arrival rate changing over time.
+     *
+     * The rates (arrivals per minute) hold in turn for the given period, the
+     * last one until the end of the simulation.
+     */
+    public TrafficPattern withRates(long periodMillis, double... perMinute) {
+        if (periodMillis <= 0 || perMinute.length == 0)
+            throw new IllegalArgumentException("Invalid rate profile");
+        return new TrafficPattern(weights, periodMillis, perMinute);
+    }
+
+    /**
+     * Up-peak traffic: most persons enter at the lobby (the bottom floor)
+     * and go to the upper floors, a few move between the upper floors.
+     */
+    public static TrafficPattern upPeak(int floors, double perMinute) {
+        return new TrafficPattern(mix(floors, 0.85, 0.05, 0.10), perMinute);
+    }
+
+    /**
+     * Down-peak traffic: most persons leave the building from the upper
+     * floors to the lobby.
+     */
+    public static TrafficPattern downPeak(int floors, double perMinute) {
+        return new TrafficPattern(mix(floors, 0.05, 0.85, 0.10), perMinute);
+    }
+
+    /**
+     * Lunch traffic: persons go to and come back from the lobby in similar
+     * numbers, with some movement between the upper floors.
+     */
+    public static TrafficPattern lunch(int floors, double perMinute) {
+        return new TrafficPattern(mix(floors, 0.40, 0.40, 0.20), perMinute);
+    }
+
+    /**
+     * Inter-floor traffic: origins and destinations are uniform over all
+     * the floors.
+     */
+    public static TrafficPattern interFloor(int floors, double perMinute) {
+        double[][] w = new double[floors][floors];
+        for (double[] row : w)
+            Arrays.fill(row, 1.0);
+        return new TrafficPattern(w, perMinute);
+    }
+
+    /**
+     * Matrix giving the fractions of the trips from the lobby, to the lobby
+     * and between the upper floors, uniform among the upper floors.
+     */
+    static double[][] mix(int floors, double incoming, double outgoing, double inter) {
+        if (floors < 2)
+            throw new IllegalArgumentException("The traffic needs at least two floors");
+        int upper = floors - 1;
+        double[][] w = new double[floors][floors];
+        for (int j = 1; j < floors; j++) {
+            w[0][j] = incoming / upper;
+            w[j][0] = outgoing / upper;
+        }
+        if (upper > 1) {
+            double pair = inter / (upper * (upper - 1));
+            for (int i = 1; i < floors; i++)
+                for (int j = 1; j < floors; j++)
+                    if (i != j)
+                        w[i][j] = pair;
+        }
+        return w;
+    }
+
+    /** Number of floors of the buildings the pattern applies to. */
+    public int getFloors() {
+        return floors;
+    }
+
+    /** Arrivals per minute at the given time since the start. */
+    public double getRate(long time) {
+        if (period <= 0)
+            return perMinute[0];
+        long k = time / period;
+        return perMinute[(int) Math.min(k, perMinute.length - 1)];
+    }
+
+    /** Largest arrival rate (arrivals per minute). */
+    double maxRate() {
+        double m = 0;
+        for (double r : perMinute)
+            m = Math.max(m, r);
+        return m;
+    }
+
+    /**
+     * Draw a trip: the result is origin * floors + destination.
+     */
+    int trip(Random random) {
+        double u = random.nextDouble() * cumulative[cumulative.length - 1];
+        int i = Arrays.binarySearch(cumulative, u);
+        if (i < 0)
+            i = -i - 1;
+        // Skip the entries with zero weight sharing the same cumulative value.
+        while (i < cumulative.length - 1 && weights[i / floors][i % floors] == 0)
+            i++;
+        return i;
+    }
+
+    /**
+     * Draw the destination of a person at the given level (-1 if nobody
+     * leaves that level in this pattern).
+     */
+    int destination(int origin, Random random) {
+        double[] row = weights[origin];
+        double total = 0;
+        for (double w : row)
+            total += w;
+        if (total <= 0)
+            return -1;
+        double u = random.nextDouble() * total;
+        for (int j = 0; j < floors; j++) {
+            u -= row[j];
+            if (u < 0 && row[j] > 0)
+                return j;
+        }
+        for (int j = floors - 1; j >= 0; j--)
+            if (row[j] > 0)
+                return j;
+        return -1;
+    }
+}
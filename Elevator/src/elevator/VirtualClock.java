@@ -0,0 +1,333 @@
+package elevator;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Discrete event clock.
+ *
+ * The simulated activities run one at a time: the running activity keeps
+ * going until it sleeps, waits or terminates.  At that point the clock picks
+ * the next entry of the agenda (a priority queue ordered by time and then by
+ * insertion), advances the virtual time to it and resumes the corresponding
+ * activity.  No real time passes during a sleep, so a simulation runs as fast
+ * as the threads can hand over to each other, and the order of the events
+ * does not depend on the scheduling of the JVM.
+ *
+ * Since only one activity runs at a time, the executors used to start them
+ * must not have a bounded number of threads.
+ *
+ * @author Claudio Cusano
+ */
+public class VirtualClock extends SimClock {
+
+    /**
+     * A simulated activity, as seen by the clock.
+     *
+     * An activity is in the agenda at most once (it is either running,
+     * scheduled or waiting), so the token itself is the entry of the agenda,
+     * with the time it has to be resumed: sleeping does not allocate.
+     */
+    static class Token implements Comparable<Token> {
+        final Runnable body;  // Null for the thread driving the simulation.
+        volatile Thread thread;
+        volatile boolean resumed;
+        boolean done;
+        List<Token> joiners = new ArrayList<>();
+        long time;  // When to resume it (guarded by the clock).
+        long seq;   // Order of insertion, for the same time.
+        boolean scheduled;  // In the agenda.
+
+        Token(Runnable body) {
+            this.body = body;
+        }
+
+        @Override
+        public int compareTo(Token o) {
+            if (time != o.time)
+                return (time < o.time ? -1 : 1);
+            return (seq < o.seq ? -1 : (seq == o.seq ? 0 : 1));
+        }
+    }
+
+    long now;
+    long seq;
+    PriorityQueue<Token> agenda = new PriorityQueue<>();
+    Map<Runnable, Token> activities = new IdentityHashMap<>();
+    Map<Condition, List<Token>> waiting = new IdentityHashMap<>();
+    Token running;
+    final ThreadLocal<Token> self = new ThreadLocal<>();
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        Token me = current();
+        Token next;
+        synchronized (this) {
+            schedule(me, now + Math.max(0, millis));
+            next = pickNext();
+        }
+        resume(next);
+        park(me);
+    }
+
+    @Override
+    void attach() {
+        Token me = new Token(null);
+        boolean mustPark;
+        self.set(me);
+        synchronized (this) {
+            mustPark = (running != null);
+            if (mustPark)
+                schedule(me, now);
+            else
+                running = me;
+        }
+        if (mustPark)
+            park(me);
+    }
+
+    @Override
+    void detach() {
+        finish(current());
+        self.remove();
+    }
+
+    @Override
+    void start(final Runnable body, Executor executor) {
+        final Token token = new Token(body);
+        synchronized (this) {
+            activities.put(body, token);
+            schedule(token, now);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                self.set(token);
+                park(token);
+                try {
+                    body.run();
+                } finally {
+                    finish(token);
+                    self.remove();
+                }
+            }
+        });
+    }
+
+    @Override
+    void join(Runnable body) throws InterruptedException {
+        Token me = current();
+        Token next;
+        synchronized (this) {
+            Token target = activities.get(body);
+            if (target == null || target.done)
+                return;
+            target.joiners.add(me);
+            next = pickNext();
+            if (next == null)
+                throw new IllegalStateException("Simulation deadlock while joining " + body);
+        }
+        resume(next);
+        park(me);
+    }
+
+    @Override
+    void await(Condition cond, ReentrantLock lock) throws InterruptedException {
+        Token me = current();
+        Token next;
+        synchronized (this) {
+            List<Token> ws = waitList(cond);
+            ws.add(me);
+            next = pickNext();
+            if (next == null) {
+                ws.remove(me);
+                running = me;
+                throw new IllegalStateException("Simulation deadlock: every simulated activity is waiting");
+            }
+        }
+        // The lock is released while parked, as a condition wait would do.
+        int holds = lock.getHoldCount();
+        for (int i = 0; i < holds; i++)
+            lock.unlock();
+        resume(next);
+        park(me);
+        for (int i = 0; i < holds; i++)
+            lock.lock();
+    }
+
+    @Override
+    void awaitUntil(Condition cond, ReentrantLock lock, long deadline) throws InterruptedException {
+        if (deadline == Long.MAX_VALUE) {
+            await(cond, lock);
+            return;
+        }
+        // The activity is both waiting and in the agenda: whichever comes
+        // first takes it out of the other.
+        Token me = current();
+        Token next;
+        List<Token> ws;
+        synchronized (this) {
+            ws = waitList(cond);
+            ws.add(me);
+            schedule(me, Math.max(now, deadline));
+            next = pickNext();
+        }
+        int holds = lock.getHoldCount();
+        for (int i = 0; i < holds; i++)
+            lock.unlock();
+        resume(next);
+        park(me);
+        synchronized (this) {
+            ws.remove(me);
+        }
+        for (int i = 0; i < holds; i++)
+            lock.lock();
+    }
+
+    @Override
+    void signalAll(Condition cond) {
+        synchronized (this) {
+            List<Token> ws = waiting.get(cond);
+            if (ws != null) {
+                for (int i = 0; i < ws.size(); i++) {
+                    Token t = ws.get(i);
+                    if (t.scheduled)
+                        agenda.remove(t);  // Waiting with a deadline.
+                    schedule(t, now);
+                }
+                ws.clear();
+            }
+        }
+    }
+
+    /**
+     * The activities waiting on the condition (the lock of the clock must
+     * be held).  The lists are kept empty after the signals, and reused.
+     */
+    List<Token> waitList(Condition cond) {
+        List<Token> ws = waiting.get(cond);
+        if (ws == null) {
+            ws = new ArrayList<>();
+            waiting.put(cond, ws);
+        }
+        return ws;
+    }
+
+    /**
+     * Time when the activity is due to resume, or -1 if it is not in the
+     * agenda (it is waiting on a condition, or it is over).
+     */
+    synchronized long resumeTime(Runnable body) {
+        Token t = activities.get(body);
+        return (t == null || !t.scheduled ? -1 : t.time);
+    }
+
+    /**
+     * Tell if the calling thread is the one driving the simulation (the one
+     * which started it, not one of its activities), and is running: all
+     * the others are parked, and the state of the simulation is not
+     * changing.
+     */
+    synchronized boolean isDriving() {
+        Token t = self.get();
+        return t != null && t == running && t.body == null;
+    }
+
+    /**
+     * Set the current time, before the simulation starts (to continue from
+     * a checkpoint).
+     */
+    synchronized void setTime(long time) {
+        if (running != null || !agenda.isEmpty())
+            throw new IllegalStateException("The clock is already in use");
+        now = time;
+    }
+
+    /** Token of the calling thread. */
+    Token current() {
+        Token t = self.get();
+        if (t == null)
+            throw new IllegalStateException(Thread.currentThread().getName() + " is not part of the simulation");
+        return t;
+    }
+
+    /** Terminate an activity and pass the control to the next one. */
+    void finish(Token token) {
+        Token next;
+        synchronized (this) {
+            token.done = true;
+            if (token.body != null)
+                activities.remove(token.body);
+            for (Token j : token.joiners)
+                schedule(j, now);
+            next = pickNext();
+        }
+        resume(next);
+    }
+
+    /** Add the activity to the agenda (the lock of the clock must be held). */
+    void schedule(Token token, long time) {
+        token.time = time;
+        token.seq = seq++;
+        token.scheduled = true;
+        agenda.add(token);
+    }
+
+    /**
+     * Remove the next activity from the agenda and advance the time (the lock
+     * of the clock must be held).
+     */
+    Token pickNext() {
+        Token t = agenda.poll();
+        if (t == null) {
+            running = null;
+            return null;
+        }
+        t.scheduled = false;
+        if (t.time > now)
+            now = t.time;
+        running = t;
+        return t;
+    }
+
+    /** Let a parked activity continue. */
+    static void resume(Token t) {
+        if (t == null)
+            return;
+        t.resumed = true;
+        Thread th = t.thread;
+        if (th != null)
+            LockSupport.unpark(th);
+    }
+
+    /**
+     * Block the calling thread until its activity is resumed.
+     *
+     * LockSupport is used instead of a monitor so that virtual threads do
+     * not pin their carrier while parked.
+     */
+    static void park(Token t) {
+        boolean interrupted = false;
+        t.thread = Thread.currentThread();
+        while (!t.resumed) {
+            LockSupport.park(t);
+            if (Thread.interrupted())
+                interrupted = true;
+        }
+        t.resumed = false;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
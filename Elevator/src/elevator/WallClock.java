@@ -0,0 +1,95 @@
+package elevator;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Real time clock: delays are actual sleeps and waits are plain condition
+ * waits.
+ *
+ * This is the mode to use for demos, where the simulation must be watched
+ * while it runs.
+ *
+ * @author Claudio Cusano
+ */
+public class WallClock extends SimClock {
+
+    long startTime = System.currentTimeMillis();
+    final Map<Runnable, CountDownLatch> activities = new IdentityHashMap<>();
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    @Override
+    void attach() {
+    }
+
+    @Override
+    void detach() {
+    }
+
+    @Override
+    void start(final Runnable body, Executor executor) {
+        final CountDownLatch finished = new CountDownLatch(1);
+        synchronized (activities) {
+            activities.put(body, finished);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    body.run();
+                } finally {
+                    finished.countDown();
+                }
+            }
+        });
+    }
+
+    @Override
+    void join(Runnable body) throws InterruptedException {
+        CountDownLatch finished;
+        synchronized (activities) {
+            finished = activities.get(body);
+        }
+        if (finished == null)
+            return;
+        finished.await();
+        synchronized (activities) {
+            activities.remove(body);
+        }
+    }
+
+    @Override
+    void await(Condition cond, ReentrantLock lock) throws InterruptedException {
+        cond.await();
+    }
+
+    @Override
+    void awaitUntil(Condition cond, ReentrantLock lock, long deadline) throws InterruptedException {
+        if (deadline == Long.MAX_VALUE) {
+            cond.await();
+            return;
+        }
+        long delay = deadline - currentTimeMillis();
+        if (delay > 0)
+            cond.await(delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    void signalAll(Condition cond) {
+        cond.signalAll();
+    }
+}
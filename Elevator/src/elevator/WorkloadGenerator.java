@@ -0,0 +1,62 @@
+package elevator;
+
+import java.util.Random;
+
+/**
+ * Activity bringing new persons in the building according to a traffic
+ * pattern.
+ *
+ * The arrivals are a non homogeneous Poisson process, generated by thinning:
+ * candidate arrivals are drawn at the largest rate of the pattern and each
+ * one is kept with probability equal to the ratio between the current rate
+ * and the largest one.  Each person makes a single trip and then stays at
+ * its destination.
+ *
+ * @author Claudio Cusano
+ */
+class WorkloadGenerator implements Runnable {
+
+    final Building building;
+    final TrafficPattern pattern;
+    final Random random;
+    volatile boolean terminated;
+
+    WorkloadGenerator(Building building, TrafficPattern pattern, Random random) {
+        if (pattern.getFloors() != building.floors.size())
+            throw new IllegalArgumentException("The traffic pattern is for a building with "
+                    + pattern.getFloors() + " floors");
+        this.building = building;
+        this.pattern = pattern;
+        this.random = random;
+    }
+
+    @Override
+    public void run() {
+        SimClock clock = building.clock;
+        double max = pattern.maxRate() / 60000.0;  // Arrivals per millisecond.
+        if (max <= 0)
+            return;
+        long start = building.startTime;  // The profile of the rate starts there.
+        try {
+            while (!terminated) {
+                double gap = -Math.log(1.0 - random.nextDouble()) / max;
+                clock.sleep(Math.round(gap));
+                if (terminated)
+                    break;
+                long t = clock.currentTimeMillis() - start;
+                if (random.nextDouble() * max * 60000.0 >= pattern.getRate(t))
+                    continue;
+                int trip = pattern.trip(random);
+                int n = pattern.getFloors();
+                building.addArrival(building.floors.get(trip / n), building.floors.get(trip % n));
+            }
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    /** Stop the arrivals. */
+    void terminate() {
+        terminated = true;
+    }
+}
@@ -1,8 +1,29 @@
 package txt;
 
 import elevator.Building;
-import elevator.ElevatorObserver;
+import elevator.Checkpoint;
+import elevator.DestinationControl;
+import elevator.DestinationDispatcher;
+import elevator.Dispatcher;
+import elevator.ElevatorSnapshot;
+import elevator.EtaDispatcher;
+import elevator.Kinematics;
+import elevator.MinimalCostControl;
+import elevator.NearestCarDispatcher;
+import elevator.Recorder;
+import elevator.Replay;
+import elevator.SimClock;
+import elevator.SnapshotObserver;
+import elevator.TrafficPattern;
+import elevator.VirtualClock;
+import elevator.WallClock;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.List;
 
 /**
@@ -12,17 +33,34 @@ import java.util.List;
  * 
  * @author Claudio Cusano
  */
-public class Simulation implements ElevatorObserver {
+public class Simulation implements SnapshotObserver {
     
     Building building;
     PrintStream out;
+    boolean printMetrics;
+    int checkpointTime = -1;  // In seconds (-1 for no checkpoint).
+    String checkpointFile;
     
     /**
      * Create the simulation.
      */
     Simulation(PrintStream out, String[] floorNames) {
+        this(out, floorNames, new WallClock());
+    }
+    
+    /**
+     * Create the simulation, measuring the time with the given clock.
+     */
+    Simulation(PrintStream out, String[] floorNames, SimClock clock) {
+        this(out, floorNames, 1, 2, clock);
+    }
+    
+    /**
+     * Create the simulation of a building with several elevators.
+     */
+    Simulation(PrintStream out, String[] floorNames, int nElevators, int capacity, SimClock clock) {
         this.out = out;
-        building = new Building(floorNames);
+        building = new Building(floorNames, nElevators, capacity, clock);
         building.addElevatorObserver(this);
     }
     
@@ -40,7 +78,16 @@ public class Simulation implements ElevatorObserver {
         
         // Wait for the duration of the simulation.        
         try {
-            Thread.sleep(secs * 1000);
+            if (checkpointTime >= 0 && checkpointTime <= secs) {
+                building.getClock().sleep(checkpointTime * 1000L);
+                try (OutputStream os = new FileOutputStream(checkpointFile)) {
+                    Checkpoint.take(building).write(os);
+                } catch (IOException ex) {
+                    System.err.println(ex);
+                }
+                secs -= checkpointTime;
+            }
+            building.getClock().sleep(secs * 1000L);
         } catch (InterruptedException ignored) {
             System.err.println(ignored);
         }
@@ -49,12 +96,16 @@ public class Simulation implements ElevatorObserver {
         out.println("Closing...");
         building.stopSimulation();            
         out.println("Simulation finished.");
+        if (printMetrics) {
+            out.println();
+            building.getMetrics().report(out);
+        }
     }
 
     /**
      * Print the information about a list of persons.
      */
-    void printPersons(String prefix, List<String> names) {
+    static void printPersons(PrintStream out, String prefix, List<String> names, ElevatorSnapshot snapshot) {
         if (names.size() == 0)
             return;
         out.print(prefix);
@@ -65,7 +116,7 @@ public class Simulation implements ElevatorObserver {
             else
                 out.print(", ");
             out.print(name);
-            String dst = building.getPersonDestination(name);
+            String dst = snapshot.getDestination(name);
             if (dst.length() > 0)
                 out.print("->" + dst);
         }
@@ -73,24 +124,203 @@ public class Simulation implements ElevatorObserver {
     }
     
     @Override
-    public void elevatorMoved() {
-        out.print("Elevator at floor " + building.getElevatorFloor());
-        out.println(" with doord " + (building.isElevatorOpen() ? "open" : "closed"));
-        printPersons("  passengers: ", building.getPersonsInElevatorNames());
-        for (String f : building.getFloorNames())
-            printPersons("  " + f + ": ", building.getPersonAtFloorNames(f));
+    public void elevatorChanged(ElevatorSnapshot snapshot) {
+        print(out, snapshot);
+    }
+    
+    /**
+     * Print the state of the building.
+     */
+    static void print(PrintStream out, ElevatorSnapshot snapshot) {
+        int n = snapshot.getElevatorCount();
+        for (int i = 0; i < n; i++) {
+            out.print("Elevator " + (n > 1 ? (i + 1) + " " : "") + "at floor " + snapshot.getElevatorFloor(i));
+            out.println(" with doord " + (snapshot.isElevatorOpen(i) ? "open" : "closed"));
+            printPersons(out, "  passengers: ", snapshot.getPassengers(i), snapshot);
+        }
+        List<String> floorNames = snapshot.getFloorNames();
+        for (int f = 0; f < floorNames.size(); f++)
+            printPersons(out, "  " + floorNames.get(f) + ": ", snapshot.getPersonsAtFloor(f), snapshot);
         out.println();
     }
         
     /**
      * @param args the command line arguments
+     * 
+     * With the "-virtual" option the simulation runs on a virtual clock
+     * instead of in real time.  With "-vthreads" the persons run on virtual
+     * threads.  "-cars N" and "-capacity C" set the number and the size of
+     * the elevators, and "-dispatch nearest|eta|destination" the policy
+     * assigning the calls to them.  With "-async" the trace is printed by a
+     * separate thread, coalescing bursts of changes.  With "-metrics" the
+     * times of the trips and the activity of the elevators are summarized at
+     * the end.  "-traffic up|down|lunch|inter" brings new persons in the
+     * building with the given pattern, at "-rate R" arrivals per minute,
+     * instead of the persons moving at random; "-seed S" makes the random
+     * choices reproducible.  "-record FILE" saves the events of the run in a
+     * binary log, and "-replay FILE" runs again the trips of a log and tells
+     * where the new run departs from it.  "-trace FILE" writes the trace in
+     * a binary file instead of printing it (TraceDecoder prints it later).
+     * With "-physics" the cars accelerate and brake like a typical traction
+     * elevator, instead of taking a fixed time for each floor.  "-control
+     * count|destination|cost" sets the collective control of the cars.
+     * "-population N" adds N more persons kept in primitive arrays, for very
+     * large runs (they are not shown in the trace, and their trips are not
+     * logged: recording or replaying them needs the same "-seed").  "-http
+     * PORT" streams the snapshots and the metrics to the clients of an HTTP
+     * server on the loopback interface (see TelemetryServer).  "-checkpoint SECS FILE"
+     * saves the state of the building after SECS seconds, and "-restore
+     * FILE" continues from a saved state (both with "-virtual"); the
+     * restored run can change the seed, the control and the dispatcher.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         final int SIMULATION_TIME = 60;  // Duration of the simulation in seconds
         final int N_PERSONS = 10;       // Number of persons in the building
         final String[] FLOOR_NAMES = { "T", "P1", "P2", "P3", "P4" };
 
-        Simulation sim = new Simulation(System.out, FLOOR_NAMES);
-        sim.runSimulation(SIMULATION_TIME, N_PERSONS);
+        SimClock clock = new WallClock();
+        boolean virtualThreads = false;
+        boolean async = false;
+        boolean printMetrics = false;
+        int nElevators = 1;
+        int capacity = 2;
+        String traffic = null;
+        double rate = 6;
+        Long seed = null;
+        String recordFile = null;
+        String replayFile = null;
+        String traceFile = null;
+        boolean physics = false;
+        String control = null;
+        int population = 0;
+        Integer httpPort = null;
+        int checkpointTime = -1;
+        String checkpointFile = null;
+        String restoreFile = null;
+        Dispatcher dispatcher = new EtaDispatcher();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-virtual"))
+                clock = new VirtualClock();
+            else if (args[i].equals("-vthreads"))
+                virtualThreads = true;
+            else if (args[i].equals("-async"))
+                async = true;
+            else if (args[i].equals("-physics"))
+                physics = true;
+            else if (args[i].equals("-metrics"))
+                printMetrics = true;
+            else if (args[i].equals("-cars") && i + 1 < args.length)
+                nElevators = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-capacity") && i + 1 < args.length)
+                capacity = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-traffic") && i + 1 < args.length)
+                traffic = args[++i];
+            else if (args[i].equals("-rate") && i + 1 < args.length)
+                rate = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-seed") && i + 1 < args.length)
+                seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("-record") && i + 1 < args.length)
+                recordFile = args[++i];
+            else if (args[i].equals("-replay") && i + 1 < args.length)
+                replayFile = args[++i];
+            else if (args[i].equals("-trace") && i + 1 < args.length)
+                traceFile = args[++i];
+            else if (args[i].equals("-control") && i + 1 < args.length)
+                control = args[++i];
+            else if (args[i].equals("-population") && i + 1 < args.length)
+                population = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-http") && i + 1 < args.length)
+                httpPort = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-checkpoint") && i + 2 < args.length) {
+                checkpointTime = Integer.parseInt(args[++i]);
+                checkpointFile = args[++i];
+            } else if (args[i].equals("-restore") && i + 1 < args.length)
+                restoreFile = args[++i];
+            else if (args[i].equals("-dispatch") && i + 1 < args.length) {
+                String name = args[++i];
+                if (name.equals("nearest"))
+                    dispatcher = new NearestCarDispatcher();
+                else if (name.equals("destination"))
+                    dispatcher = new DestinationDispatcher();
+            }
+        }
+        
+        if ((checkpointFile != null || restoreFile != null) && !(clock instanceof VirtualClock)) {
+            System.err.println("Checkpoints need the virtual clock (-virtual)");
+            return;
+        }
+        if (population > 0 && seed == null && (recordFile != null || replayFile != null)) {
+            System.err.println("Recording or replaying a population needs a seed (-seed)");
+            return;
+        }
+        Simulation sim = new Simulation(System.out, FLOOR_NAMES, nElevators, capacity, clock);
+        sim.building.setDispatcher(dispatcher);
+        sim.building.setAsyncNotification(async);
+        sim.printMetrics = printMetrics;
+        sim.checkpointTime = checkpointTime;
+        sim.checkpointFile = checkpointFile;
+        if (virtualThreads)
+            sim.building.setPersonExecutor(Building.virtualThreadExecutor());
+        if (seed != null)
+            sim.building.setSeed(seed);
+        if (physics)
+            sim.building.setKinematics(Kinematics.typical());
+        if ("destination".equals(control))
+            sim.building.setControl(new DestinationControl());
+        else if ("cost".equals(control))
+            sim.building.setControl(new MinimalCostControl());
+        if (population > 0)
+            sim.building.setPopulation(population);
+        int n = FLOOR_NAMES.length;
+        TrafficPattern pattern = null;
+        if ("up".equals(traffic))
+            pattern = TrafficPattern.upPeak(n, rate);
+        else if ("down".equals(traffic))
+            pattern = TrafficPattern.downPeak(n, rate);
+        else if ("lunch".equals(traffic))
+            pattern = TrafficPattern.lunch(n, rate);
+        else if ("inter".equals(traffic))
+            pattern = TrafficPattern.interFloor(n, rate);
+        sim.building.setTraffic(pattern);
+        Replay replay = null;
+        if (replayFile != null) {
+            try (InputStream in = new FileInputStream(replayFile)) {
+                replay = Replay.read(in);
+            }
+            sim.building.replay(replay);
+        }
+        if (restoreFile != null) {
+            try (InputStream in = new FileInputStream(restoreFile)) {
+                sim.building.restore(Checkpoint.read(in));
+            }
+        }
+        Recorder recorder = null;
+        if (recordFile != null) {
+            recorder = new Recorder(new FileOutputStream(recordFile));
+            sim.building.record(recorder);
+        }
+        TraceWriter trace = null;
+        if (traceFile != null) {
+            trace = new TraceWriter(Paths.get(traceFile));
+            sim.building.removeElevatorObserver(sim);
+            sim.building.addElevatorObserver(trace);
+        }
+        TelemetryServer telemetry = null;
+        if (httpPort != null) {
+            telemetry = new TelemetryServer(sim.building, httpPort);
+            System.err.println("Telemetry on http://localhost:" + telemetry.getPort() + "/events");
+        }
+        sim.runSimulation(SIMULATION_TIME, (pattern == null && restoreFile == null ? N_PERSONS : 0));
+        if (telemetry != null)
+            telemetry.close();
+        if (trace != null)
+            trace.close();
+        if (recorder != null)
+            recorder.close();
+        if (replay != null) {
+            String divergence = replay.getDivergence();
+            System.out.println(divergence == null ? "Replay identical to the log ("
+                    + replay.getEventCount() + " events)." : "Replay diverged at " + divergence);
+        }
     }
 }
@@ -0,0 +1,95 @@
+package txt;
+
+import elevator.ParameterSweep;
+import elevator.ParameterSweep.Result;
+import elevator.ParameterSweep.Scenario;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Run a parameter sweep and print a table of the results.
+ *
+ * The parameters are given as name=values, where the values are a comma
+ * separated list of numbers or ranges (from:to or from:to:step):
+ * <pre>
+ *   java txt.Sweep floors=5,10 cars=1:3 capacity=8 persons=50,100 reps=20
+ * </pre>
+ * Scenarios: floors, cars, capacity, doors, travel (milliseconds), persons.
+ * Sweep: reps, time (simulated seconds), seed, threads, traffic
+ * (up|down|lunch|inter) and rate (arrivals per minute).
+ *
+ * @author Claudio Cusano
+ */
+public class Sweep {
+
+    /** Parse a list of values or ranges. */
+    static List<Integer> values(String spec) {
+        List<Integer> ret = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] r = part.split(":");
+            int from = Integer.parseInt(r[0]);
+            int to = (r.length > 1 ? Integer.parseInt(r[1]) : from);
+            int step = (r.length > 2 ? Integer.parseInt(r[2]) : 1);
+            if (step <= 0)
+                throw new IllegalArgumentException("Invalid step in " + part);
+            for (int v = from; v <= to; v += step)
+                ret.add(v);
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> p = new HashMap<>();
+        p.put("floors", "5");
+        p.put("cars", "1");
+        p.put("capacity", "2");
+        p.put("doors", "1000");
+        p.put("travel", "1500");
+        p.put("persons", "10");
+        p.put("reps", "10");
+        p.put("time", "3600");
+        p.put("seed", "1");
+        p.put("rate", "6");
+        p.put("threads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq < 0 || !p.containsKey(a.substring(0, eq)) && !a.startsWith("traffic=")) {
+                System.err.println("Unknown parameter " + a);
+                System.exit(1);
+            }
+            p.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int floors : values(p.get("floors")))
+            for (int cars : values(p.get("cars")))
+                for (int capacity : values(p.get("capacity")))
+                    for (int doors : values(p.get("doors")))
+                        for (int travel : values(p.get("travel")))
+                            for (int persons : values(p.get("persons")))
+                                scenarios.add(new Scenario(floors, cars, capacity, doors, travel, persons));
+
+        ParameterSweep sweep = new ParameterSweep(Integer.parseInt(p.get("reps")),
+                Long.parseLong(p.get("time")) * 1000, Long.parseLong(p.get("seed")));
+        if (p.containsKey("traffic"))
+            sweep.setTraffic(p.get("traffic"), Double.parseDouble(p.get("rate")));
+        ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(p.get("threads")));
+        sweep.setPool(pool);
+        long start = System.nanoTime();
+        List<Result> results = sweep.run(scenarios);
+        pool.shutdown();
+
+        System.out.println(String.format(Locale.ROOT, "%-62s %16s %18s %18s %18s %18s",
+                "scenario", "trips", "wait mean (ms)", "wait p95", "journey mean", "journey p95"));
+        for (Result r : results)
+            System.out.println(String.format(Locale.ROOT, "%-62s %16s %18s %18s %18s %18s",
+                    r.getScenario(), r.getTrips(), r.getMeanWait(), r.getP95Wait(),
+                    r.getMeanJourney(), r.getP95Journey()));
+        System.out.println(String.format(Locale.ROOT, "%d scenarios x %s replications in %.1f s",
+                scenarios.size(), p.get("reps"), (System.nanoTime() - start) / 1e9));
+    }
+}
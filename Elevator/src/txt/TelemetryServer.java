@@ -0,0 +1,326 @@
+package txt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import elevator.Building;
+import elevator.ElevatorSnapshot;
+import elevator.Histogram;
+import elevator.Metrics;
+import elevator.SnapshotObserver;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Observer publishing the state of a running building over HTTP.
+ *
+ * The server listens on the loopback interface only, and offers:
+ * <pre>
+ *   /events     stream of Server-Sent Events: "snapshot" at each change of
+ *               the building, "metrics" every second
+ *   /snapshot   the last snapshot
+ *   /metrics    the last metrics
+ * </pre>
+ * all in JSON.  The metrics hold the trips completed and the percentiles of
+ * the wait and ride times, over the whole run and over the last WINDOW
+ * seconds.  The metrics are computed every second of real time, whatever
+ * the clock of the building: with a virtual clock the window covers the
+ * trips completed in the last WINDOW seconds on the wall clock, however
+ * much simulated time they took.
+ *
+ * Each client has its own bounded queue, filled by the thread notifying the
+ * change and emptied by the thread of the client.  A client which does not
+ * keep up fills its queue and is dropped: the elevators never wait for the
+ * network.  The thread of a dropped client is interrupted, closing the
+ * connection even when the thread is blocked writing to it.
+ *
+ * @author Claudio Cusano
+ */
+public class TelemetryServer implements SnapshotObserver, Closeable {
+
+    static final int QUEUE_SIZE = 256;  // Events waiting to be sent to a client.
+    static final int WINDOW = 10;       // Seconds (of real time) of the rolling metrics.
+
+    /** A client of the event stream. */
+    static class Client {
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        volatile boolean dropped;
+        Thread thread;  // Serving the client (guarded by the client).
+    }
+
+    final Building building;
+    final HttpServer server;
+    final ExecutorService handlers = Executors.newCachedThreadPool();
+    final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+    final List<Client> clients = new CopyOnWriteArrayList<>();
+    final Deque<Histogram[]> window = new ArrayDeque<>();  // Used by the ticker only.
+    volatile ElevatorSnapshot last;
+    volatile String metrics = "{}";
+    final AtomicLong droppedClients = new AtomicLong();
+    final AtomicLong openStreams = new AtomicLong();
+
+    /**
+     * Start serving the building on the given port of the loopback
+     * interface (0 for any free port).  The server is registered as an
+     * observer of the building.
+     */
+    public TelemetryServer(Building building, int port) throws IOException {
+        this.building = building;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/events", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                stream(ex);
+            }
+        });
+        server.createContext("/snapshot", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                ElevatorSnapshot s = last;
+                reply(ex, s == null ? "{}" : toJson(s));
+            }
+        });
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                reply(ex, metrics);
+            }
+        });
+        server.start();
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        building.addElevatorObserver(this);
+    }
+
+    /** Port where the server listens. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Number of clients dropped because they were too slow. */
+    public long getDroppedClients() {
+        return droppedClients.get();
+    }
+
+    /** Number of connections to the event stream still served. */
+    public long getOpenStreams() {
+        return openStreams.get();
+    }
+
+    @Override
+    public void elevatorChanged(ElevatorSnapshot snapshot) {
+        last = snapshot;
+        for (Client c : clients)
+            publish(c, snapshot);
+    }
+
+    /** Queue the event for the client, or drop the client if it is full. */
+    void publish(Client c, Object event) {
+        if (!c.dropped && !c.queue.offer(event)) {
+            drop(c);
+            droppedClients.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop serving the client.  Its thread is interrupted: the channel of
+     * the connection is closed by an interrupted write, so that the thread
+     * is not left blocked on a client which stopped reading.
+     */
+    void drop(Client c) {
+        c.dropped = true;
+        clients.remove(c);
+        synchronized (c) {
+            if (c.thread != null)
+                c.thread.interrupt();
+        }
+    }
+
+    /** Compute the metrics, and send them to the clients. */
+    void tick() {
+        Metrics m = building.getMetrics();
+        Histogram wait = m.getWaitTime().copy();
+        Histogram ride = m.getRideTime().copy();
+        window.addLast(new Histogram[] { wait, ride });
+        if (window.size() > WINDOW + 1)
+            window.removeFirst();
+        Histogram[] first = window.getFirst();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"trips\":").append(building.getCompletedTrips());
+        sb.append(",\"wait\":");
+        times(sb, wait);
+        sb.append(",\"ride\":");
+        times(sb, ride);
+        sb.append(",\"window\":").append(window.size() - 1);
+        sb.append(",\"recentWait\":");
+        times(sb, wait.since(first[0]));
+        sb.append(",\"recentRide\":");
+        times(sb, ride.since(first[1]));
+        sb.append(",\"droppedClients\":").append(droppedClients.get()).append('}');
+        String json = sb.toString();
+        metrics = json;
+        for (Client c : clients)
+            publish(c, json);
+    }
+
+    /** Serve a client of the event stream until it goes away or is dropped. */
+    void stream(HttpExchange ex) {
+        Client c = new Client();
+        synchronized (c) {
+            c.thread = Thread.currentThread();
+        }
+        openStreams.incrementAndGet();
+        try {
+            ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+            ex.sendResponseHeaders(200, 0);
+            clients.add(c);
+            OutputStream out = ex.getResponseBody();
+            while (!c.dropped) {
+                Object event = c.queue.poll(1, TimeUnit.SECONDS);
+                if (event == null) {
+                    out.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+                } else if (event instanceof ElevatorSnapshot) {
+                    out.write(("event: snapshot\ndata: " + toJson((ElevatorSnapshot) event) + "\n\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                } else {
+                    out.write(("event: metrics\ndata: " + event + "\n\n").getBytes(StandardCharsets.UTF_8));
+                }
+                out.flush();
+            }
+        } catch (IOException | InterruptedException gone) {
+            // The client closed the connection, was dropped, or the server
+            // is closing.
+        } finally {
+            clients.remove(c);
+            // Closing writes the end of the stream: the connection of a
+            // dropped client is aborted instead.
+            if (c.dropped)
+                Thread.currentThread().interrupt();
+            ex.close();
+            synchronized (c) {
+                c.thread = null;
+            }
+            Thread.interrupted();  // The thread goes back to the pool.
+            openStreams.decrementAndGet();
+        }
+    }
+
+    /** Send a JSON document. */
+    static void reply(HttpExchange ex, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Summary of a histogram of times. */
+    static void times(StringBuilder sb, Histogram h) {
+        sb.append(String.format(Locale.ROOT, "{\"count\":%d,\"mean\":%.1f,\"p50\":%d,\"p95\":%d,\"p99\":%d,\"max\":%d}",
+                h.getCount(), h.getMean(), h.getPercentile(0.5), h.getPercentile(0.95),
+                h.getPercentile(0.99), h.getMax()));
+    }
+
+    /** The snapshot in JSON. */
+    static String toJson(ElevatorSnapshot s) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"time\":").append(s.getTime());
+        sb.append(",\"car\":").append(s.getCar());
+        sb.append(",\"cars\":[");
+        for (int i = 0; i < s.getElevatorCount(); i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"floor\":");
+            string(sb, s.getElevatorFloor(i));
+            sb.append(",\"open\":").append(s.isElevatorOpen(i));
+            sb.append(",\"passengers\":");
+            persons(sb, s.getPassengers(i), s);
+            sb.append('}');
+        }
+        sb.append("],\"floors\":[");
+        List<String> floors = s.getFloorNames();
+        for (int i = 0; i < floors.size(); i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"name\":");
+            string(sb, floors.get(i));
+            sb.append(",\"persons\":");
+            persons(sb, s.getPersonsAtFloor(i), s);
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    /** List of persons with their destinations. */
+    static void persons(StringBuilder sb, List<String> names, ElevatorSnapshot s) {
+        sb.append('[');
+        boolean first = true;
+        for (String name : names) {
+            if (!first)
+                sb.append(',');
+            first = false;
+            sb.append("{\"name\":");
+            string(sb, name);
+            String dst = s.getDestination(name);
+            if (dst.length() > 0) {
+                sb.append(",\"destination\":");
+                string(sb, dst);
+            }
+            sb.append('}');
+        }
+        sb.append(']');
+    }
+
+    /** A JSON string. */
+    static void string(StringBuilder sb, String v) {
+        sb.append('"');
+        for (int i = 0; i < v.length(); i++) {
+            char ch = v.charAt(i);
+            if (ch == '"' || ch == '\\')
+                sb.append('\\').append(ch);
+            else if (ch < 0x20)
+                sb.append(String.format("\\u%04x", (int) ch));
+            else
+                sb.append(ch);
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Stop the server and disconnect the clients.
+     */
+    @Override
+    public void close() {
+        building.removeElevatorObserver(this);
+        ticker.shutdownNow();
+        List<Client> all = new ArrayList<>(clients);
+        for (Client c : all)
+            drop(c);
+        server.stop(1);
+        handlers.shutdownNow();
+    }
+}
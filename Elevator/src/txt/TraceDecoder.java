@@ -0,0 +1,176 @@
+package txt;
+
+import elevator.ElevatorSnapshot;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Render a binary trace written by a TraceWriter as the text printed by the
+ * Simulation.
+ *
+ * The trace is read through memory mappings of the file, a window at a
+ * time, and the state of the building is rebuilt record by record.
+ *
+ * @author Claudio Cusano
+ */
+public class TraceDecoder {
+
+    static final long WINDOW = TraceWriter.RECORD_SIZE * (4L << 20);  // 64 MB
+
+    final PrintStream out;
+    String[] floors;
+    List<List<Integer>> passengers;
+    String[] carFloor;
+    boolean[] carOpen;
+    final List<String> names = new ArrayList<>();
+    int[] location = new int[64];
+    int[] destination = new int[64];
+    
+    // Name being read, spread over several records.
+    byte[] pending;
+    int pendingLength;
+
+    TraceDecoder(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Decode the whole file.
+     */
+    void decode(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size() - channel.size() % TraceWriter.RECORD_SIZE;
+            if (size == 0)
+                throw new IOException("Empty trace");
+            for (long pos = 0; pos < size; pos += WINDOW) {
+                ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW, size - pos));
+                if (pos == 0 && b.getInt(0) != TraceWriter.MAGIC)
+                    throw new IOException("Not a trace of the simulation");
+                if (pos == 0)
+                    b.position(TraceWriter.RECORD_SIZE);
+                while (b.hasRemaining())
+                    record(b.get(), b.get(), b.getShort(), b.getInt(), b.getInt(), b.getInt());
+            }
+        }
+        out.flush();
+    }
+
+    /** Apply a record to the state of the building. */
+    void record(byte kind, byte flag, short len, int x, int y, int z) throws IOException {
+        switch (kind) {
+            case TraceWriter.HEADER:
+                if (x != TraceWriter.VERSION)
+                    throw new IOException("Unsupported trace version " + x);
+                floors = new String[y];
+                carFloor = new String[z];
+                carOpen = new boolean[z];
+                passengers = new ArrayList<>();
+                for (int i = 0; i < z; i++)
+                    passengers.add(new ArrayList<Integer>());
+                break;
+            case TraceWriter.FLOOR:
+                String floor = chunk(len, y, z);
+                if (floor != null)
+                    floors[x] = floor;
+                break;
+            case TraceWriter.NAME:
+                String name = chunk(len, y, z);
+                if (name != null) {
+                    if (x == location.length) {
+                        location = Arrays.copyOf(location, 2 * x);
+                        destination = Arrays.copyOf(destination, 2 * x);
+                    }
+                    names.add(name);
+                    location[x] = TraceWriter.NOWHERE;
+                    destination[x] = -1;
+                }
+                break;
+            case TraceWriter.CAR:
+                carFloor[x] = floors[y];
+                carOpen[x] = (flag != 0);
+                break;
+            case TraceWriter.PERSON:
+                int old = location[x];
+                if (old != y) {
+                    if (old < 0 && old != TraceWriter.NOWHERE)
+                        passengers.get(-1 - old).remove(Integer.valueOf(x));
+                    if (y < 0 && y != TraceWriter.NOWHERE)
+                        passengers.get(-1 - y).add(x);
+                }
+                location[x] = y;
+                destination[x] = z;
+                break;
+            case TraceWriter.NOTIFY:
+                Simulation.print(out, snapshot(x, ((long) y << 32) | (z & 0xffffffffL)));
+                break;
+            default:
+                throw new IOException("Corrupted trace (record of kind " + kind + ")");
+        }
+    }
+
+    /**
+     * Add the bytes of a record to the string being read; return the string
+     * once complete.
+     */
+    String chunk(int len, int hi, int lo) {
+        if (pending == null) {
+            pending = new byte[len + 8];
+            pendingLength = 0;
+        }
+        long bits = ((long) hi << 32) | (lo & 0xffffffffL);
+        for (int k = 0; k < 8; k++)
+            pending[pendingLength++] = (byte) (bits >>> (56 - 8 * k));
+        if (pendingLength < len)
+            return null;
+        String s = new String(pending, 0, len, StandardCharsets.UTF_8);
+        pending = null;
+        return s;
+    }
+
+    /** Snapshot of the current state. */
+    ElevatorSnapshot snapshot(int car, long time) {
+        List<List<String>> atFloor = new ArrayList<>(floors.length);
+        for (int i = 0; i < floors.length; i++)
+            atFloor.add(new ArrayList<String>());
+        Map<String, String> destinations = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (location[i] >= 0)
+                atFloor.get(location[i]).add(names.get(i));
+            if (destination[i] >= 0)
+                destinations.put(names.get(i), floors[destination[i]]);
+        }
+        List<List<String>> inCars = new ArrayList<>(carFloor.length);
+        for (List<Integer> ids : passengers) {
+            List<String> l = new ArrayList<>(ids.size());
+            for (int id : ids)
+                l.add(names.get(id));
+            inCars.add(l);
+        }
+        return ElevatorSnapshot.of(time, car, carFloor, carOpen, inCars, Arrays.asList(floors),
+                atFloor, destinations, names);
+    }
+
+    /**
+     * @param args the name of the trace file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java txt.TraceDecoder TRACE_FILE");
+            System.exit(1);
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        new TraceDecoder(out).decode(Paths.get(args[0]));
+    }
+}
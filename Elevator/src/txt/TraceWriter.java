@@ -0,0 +1,205 @@
+package txt;
+
+import elevator.ElevatorSnapshot;
+import elevator.SnapshotObserver;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Observer writing the trace of the simulation in a binary file.
+ *
+ * Instead of printing the whole building at each event, only the changes
+ * since the previous snapshot are written, as records of fixed size (16
+ * bytes) collected in a large buffer and written with a file channel.  The
+ * TraceDecoder renders the trace as the text printed by the Simulation.
+ *
+ * Each record is made of a kind byte, a byte and a short of arguments, and
+ * three ints:
+ * <pre>
+ *   HEADER  -, -, version, floors, cars
+ *   FLOOR   -, length, level, bytes of the name (8 per record, continued)
+ *   NAME    -, length, person, bytes of the name (idem)
+ *   CAR     open, -, car, floor, -
+ *   PERSON  -, -, person, location, destination
+ *   NOTIFY  -, -, car, high and low word of the time
+ * </pre>
+ * The file starts with a record holding the magic number.
+ * The location of a person is the level of the floor, or -1 - car when the
+ * person is in a car; the destination is a level or -1.
+ *
+ * @author Claudio Cusano
+ */
+public class TraceWriter implements SnapshotObserver, Closeable {
+
+    static final int MAGIC = 0x45545243;  // "ETRC"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 16;
+
+    static final byte HEADER = 1;
+    static final byte FLOOR = 2;
+    static final byte NAME = 3;
+    static final byte CAR = 4;
+    static final byte PERSON = 5;
+    static final byte NOTIFY = 6;
+
+    static final int NOWHERE = Integer.MIN_VALUE;
+
+    final FileChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 8192);
+    IOException error;
+    long records;
+
+    // State written so far.
+    Map<String, Integer> floorLevels;
+    final Map<String, Integer> ids = new HashMap<>();
+    int[] location = new int[64];
+    int[] destination = new int[64];
+    String[] carFloor;
+    boolean[] carOpen;
+
+    /**
+     * Create the trace file (replacing it if it exists).
+     */
+    public TraceWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putInt(0);
+        buffer.putLong(0);
+    }
+
+    @Override
+    public synchronized void elevatorChanged(ElevatorSnapshot s) {
+        if (error != null)
+            return;
+        try {
+            if (floorLevels == null)
+                writeHeader(s);
+            List<String> names = s.getPersonNames();
+            for (int i = ids.size(); i < names.size(); i++)
+                addPerson(names.get(i));
+            int n = s.getElevatorCount();
+            int nFloors = floorLevels.size();
+            
+            // Passengers first, in the order in which they boarded.
+            for (int car = 0; car < n; car++)
+                for (String name : s.getPassengers(car))
+                    update(s, name, -1 - car);
+            for (int f = 0; f < nFloors; f++)
+                for (String name : s.getPersonsAtFloor(f))
+                    update(s, name, f);
+            for (int car = 0; car < n; car++) {
+                if (!s.getElevatorFloor(car).equals(carFloor[car]) || s.isElevatorOpen(car) != carOpen[car]) {
+                    carFloor[car] = s.getElevatorFloor(car);
+                    carOpen[car] = s.isElevatorOpen(car);
+                    put(CAR, (carOpen[car] ? 1 : 0), 0, car, floorLevels.get(carFloor[car]), 0);
+                }
+            }
+            long t = s.getTime();
+            put(NOTIFY, 0, 0, s.getCar(), (int) (t >>> 32), (int) t);
+        } catch (IOException ex) {
+            error = ex;
+        }
+    }
+
+    /** Write a PERSON record if the person has moved or changed destination. */
+    void update(ElevatorSnapshot s, String name, int loc) throws IOException {
+        int id = ids.get(name);
+        String d = s.getDestination(name);
+        int dst = (d.length() == 0 ? -1 : floorLevels.get(d));
+        if (location[id] != loc || destination[id] != dst) {
+            location[id] = loc;
+            destination[id] = dst;
+            put(PERSON, 0, 0, id, loc, dst);
+        }
+    }
+
+    void writeHeader(ElevatorSnapshot s) throws IOException {
+        List<String> floors = s.getFloorNames();
+        int n = s.getElevatorCount();
+        put(HEADER, 0, 0, VERSION, floors.size(), n);
+        floorLevels = new HashMap<>();
+        for (int i = 0; i < floors.size(); i++) {
+            floorLevels.put(floors.get(i), i);
+            putString(FLOOR, i, floors.get(i));
+        }
+        carFloor = new String[n];
+        carOpen = new boolean[n];
+    }
+
+    void addPerson(String name) throws IOException {
+        int id = ids.size();
+        ids.put(name, id);
+        if (id == location.length) {
+            location = Arrays.copyOf(location, 2 * id);
+            destination = Arrays.copyOf(destination, 2 * id);
+        }
+        location[id] = NOWHERE;
+        destination[id] = -1;
+        putString(NAME, id, name);
+    }
+
+    /** Write a string in as many records as needed, 8 bytes each. */
+    void putString(byte kind, int id, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE)
+            throw new IOException("Name too long for the trace: " + s);
+        int i = 0;
+        do {
+            long chunk = 0;
+            for (int k = 0; k < 8; k++)
+                chunk = (chunk << 8) | (i + k < bytes.length ? bytes[i + k] & 0xff : 0);
+            put(kind, 0, bytes.length, id, (int) (chunk >>> 32), (int) chunk);
+            i += 8;
+        } while (i < bytes.length);
+    }
+
+    /** Append a record. */
+    void put(byte kind, int b, int s, int x, int y, int z) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE)
+            flush();
+        buffer.put(kind);
+        buffer.put((byte) b);
+        buffer.putShort((short) s);
+        buffer.putInt(x);
+        buffer.putInt(y);
+        buffer.putInt(z);
+        records++;
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /** Number of records written. */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Write the buffered records and close the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (error == null)
+                flush();
+        } finally {
+            channel.close();
+        }
+        if (error != null)
+            throw error;
+    }
+}
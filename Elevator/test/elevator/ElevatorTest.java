@@ -0,0 +1,119 @@
+package elevator;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the elevator.
+ *
+ * @author Claudio Cusano
+ */
+public class ElevatorTest {
+
+    /**
+     * Virtual clock counting, floor by floor, the persons woken by the cars:
+     * those waiting at the floor where their car has the doors open, and
+     * those waiting anywhere else.
+     */
+    static class WakeupClock extends VirtualClock {
+        final int[] atStop;
+        final int[] away;
+        boolean counting = true;
+        // Floor where each person waits: in the queue at its floor, or in
+        // the car for its destination (guarded by the clock).
+        final Map<Person, Floor> waitingAt = new IdentityHashMap<>();
+
+        WakeupClock(int floors) {
+            atStop = new int[floors];
+            away = new int[floors];
+        }
+
+        @Override
+        void await(Condition cond, ReentrantLock lock) throws InterruptedException {
+            Token me = current();
+            if (me.body instanceof Person) {
+                Person p = (Person) me.body;
+                synchronized (this) {
+                    waitingAt.put(p, p.location != null ? p.location : p.destination);
+                }
+            }
+            super.await(cond, lock);
+        }
+
+        @Override
+        void signalAll(Condition cond) {
+            synchronized (this) {
+                List<Token> ws = waiting.get(cond);
+                if (counting && ws != null) {
+                    for (Token t : ws) {
+                        if (!(t.body instanceof Person))
+                            continue;
+                        Person p = (Person) t.body;
+                        Floor f = waitingAt.get(p);
+                        Elevator e = p.elevator;
+                        if (e != null && e.open && e.position == f)
+                            atStop[f.level]++;
+                        else
+                            away[f.level]++;
+                    }
+                }
+            }
+            super.signalAll(cond);
+        }
+    }
+
+    static String[] floorNames(int n) {
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++)
+            names[i] = "F" + i;
+        return names;
+    }
+
+    /** Run a seeded building, counting the wakeups. */
+    static WakeupClock run(int floors, int cars, int capacity, int persons) throws InterruptedException {
+        WakeupClock clock = new WakeupClock(floors);
+        Building b = new Building(floorNames(floors), cars, capacity, clock);
+        b.setSeed(1);
+        b.startSimulation();
+        for (int i = 0; i < persons; i++)
+            b.addNewPerson();
+        clock.sleep(10 * 60 * 1000);
+        // Stopping wakes everybody.
+        synchronized (clock) {
+            clock.counting = false;
+        }
+        b.stopSimulation();
+        return clock;
+    }
+
+    /** Only the persons at the floor where the car stops are woken. */
+    @Test
+    public void wakesOnlyTheStoppingFloor() throws InterruptedException {
+        WakeupClock clock = run(8, 1, 4, 40);
+        int floors = 0;
+        for (int level = 0; level < clock.atStop.length; level++) {
+            assertEquals("Persons woken away from the car at floor " + level, 0, clock.away[level]);
+            if (clock.atStop[level] > 0)
+                floors++;
+        }
+        assertEquals("Floors where the car woke somebody", clock.atStop.length, floors);
+    }
+
+    /** The same with several cars, each waking only its own persons. */
+    @Test
+    public void wakesOnlyTheStoppingFloorOfEachCar() throws InterruptedException {
+        WakeupClock clock = run(10, 3, 8, 200);
+        int woken = 0;
+        for (int level = 0; level < clock.atStop.length; level++) {
+            assertEquals("Persons woken away from their car at floor " + level, 0, clock.away[level]);
+            woken += clock.atStop[level];
+        }
+        assertTrue("Nobody was woken", woken > 0);
+    }
+}